@@ -0,0 +1,224 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.android.internal;
+
+import android.app.Instrumentation;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ListAdapter;
+
+// -------------------------------------------------------------------------
+/**
+ * <p>
+ * A class that finds the first item in a list that matches a given criteria
+ * by asking the list's adapter for the view of each item off-screen, and then
+ * scrolling the list directly to that item, instead of paging through the
+ * list one screen at a time like {@link ScrollingAndroidViewFinder}.
+ * </p><p>
+ * Since the item views are inspected before they are attached to the list,
+ * filters that depend on a view's parent or location may not match them.
+ * Every match is therefore checked again against the view that is actually
+ * on screen after scrolling, and callers should fall back to a
+ * {@link ScrollingAndroidViewFinder} when this class finds nothing.
+ * </p>
+ *
+ * @author  Tony Allevato
+ * @author  Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class AdapterAndroidViewFinder
+{
+    //~ Static/instance variables .............................................
+
+    private Instrumentation instrumentation;
+    private AbsListView listView;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new {@code AdapterAndroidViewFinder} that searches the items
+     * in the specified list.
+     *
+     * @param instrumentation the instrumentation
+     * @param listView the list to search
+     */
+    public AdapterAndroidViewFinder(
+        Instrumentation instrumentation, AbsListView listView)
+    {
+        this.instrumentation = instrumentation;
+        this.listView = listView;
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the first view in the list that matches the specified filter,
+     * scrolling the list so that the view is on screen.
+     *
+     * If the item matches the filter but its view on screen does not, the
+     * list is scrolled back to where it was before returning null.
+     *
+     * @param filter the filter to match
+     * @return the matching view, or null if none was found
+     */
+    public View findFirst(AndroidViewFilter filter)
+    {
+        int position = findPosition(filter);
+
+        if (position < 0)
+        {
+            return null;
+        }
+
+        int previousPosition = getFirstVisiblePosition();
+        View row = scrollToPosition(position);
+        View found = null;
+
+        if (row != null)
+        {
+            found = new AndroidViewFinder(row).findFirst(filter);
+        }
+
+        if (found == null)
+        {
+            // Put the list back where it was, so that a scrolling finder
+            // used after this one starts from the same place and does not
+            // skip the items before the one we scrolled to.
+            scrollToPosition(previousPosition);
+        }
+
+        return found;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the position of the first item that is visible in the list.
+     *
+     * @return the position of the first visible item
+     */
+    public int getFirstVisiblePosition()
+    {
+        final int[] position = new int[1];
+
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run()
+            {
+                position[0] = listView.getFirstVisiblePosition();
+            }
+        });
+
+        return position[0];
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the position of the first item in the list whose view (as created
+     * by the adapter) contains a view that matches the specified filter.
+     *
+     * @param filter the filter to match
+     * @return the position of the item, or -1 if none was found
+     */
+    public int findPosition(final AndroidViewFilter filter)
+    {
+        final int[] position = { -1 };
+
+        // Adapters expect to be used on the UI thread.
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run()
+            {
+                ListAdapter adapter = listView.getAdapter();
+
+                if (adapter == null)
+                {
+                    return;
+                }
+
+                // Recycle the views we create, one per view type, as the
+                // list itself would.
+                View[] scrapViews = new View[adapter.getViewTypeCount()];
+
+                for (int i = 0; i < adapter.getCount(); i++)
+                {
+                    int type = adapter.getItemViewType(i);
+                    boolean recyclable = type >= 0 && type < scrapViews.length;
+
+                    View row = adapter.getView(
+                        i, recyclable ? scrapViews[type] : null, listView);
+
+                    if (recyclable)
+                    {
+                        scrapViews[type] = row;
+                    }
+
+                    if (row != null
+                        && new AndroidViewFinder(row).findFirst(filter) != null)
+                    {
+                        position[0] = i;
+                        return;
+                    }
+                }
+            }
+        });
+
+        return position[0];
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Scrolls the list directly to the item at the specified position and
+     * waits for it to be laid out.
+     *
+     * @param position the position of the item
+     * @return the view on screen for the item, or null if it could not be
+     *     found
+     */
+    public View scrollToPosition(final int position)
+    {
+        final View[] row = new View[1];
+
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run()
+            {
+                listView.setSelection(position);
+            }
+        });
+
+        instrumentation.waitForIdleSync();
+
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run()
+            {
+                row[0] = listView.getChildAt(
+                    position - listView.getFirstVisiblePosition());
+            }
+        });
+
+        return row[0];
+    }
+}
@@ -24,16 +24,25 @@ package student.android.internal;
 import java.util.concurrent.Callable;
 import android.app.Instrumentation;
 import android.widget.AbsListView;
+import android.widget.HorizontalScrollView;
+import android.widget.ScrollView;
 import android.view.View;
+import android.view.ViewParent;
 
 // -------------------------------------------------------------------------
 /**
  * <p>
  * Automates scrolling of various types of views in Android, for testing
- * purposes. Currently, only {@link android.widget.ListView} is supported; all
- * other types of views return a "null" scroller that provides the same
- * interface but does not actually do any scrolling. In the future, more types
- * of views will be supported.
+ * purposes. Currently, lists (any {@link AbsListView}), {@link ScrollView},
+ * and {@link HorizontalScrollView} are supported; all other types of views
+ * return a "null" scroller that provides the same interface but does not
+ * actually do any scrolling.
+ * </p><p>
+ * Scroll views differ from lists in that all of their content exists at all
+ * times, even the parts that are off screen. Their scrollers
+ * {@link #hasAllContent() report this}, so that a search can look through
+ * the content once and then {@link #scrollToView(View) jump} straight to
+ * what it found, instead of paging.
  * </p><p>
  * In most cases, students won't need to use this class directly. It is used
  * by methods like {@link student.AndroidTestCase#selectItemInList(String)} to
@@ -54,14 +63,25 @@ public abstract class AndroidScroller
      */
     public enum Direction
     {
-        /** Scroll up (not currently supported). */
+        /** Scroll up. */
         UP,
 
         /** Scroll down. */
-        DOWN
+        DOWN,
+
+        /** Scroll left. */
+        LEFT,
+
+        /** Scroll right. */
+        RIGHT
     }
 
 
+    // The longest time to wait for a scroll operation to settle, in
+    // milliseconds.
+    private static final long SETTLE_TIMEOUT = 2000;
+
+
     //~ Static/instance variables .............................................
 
     /** The view being scrolled. */
@@ -75,8 +95,8 @@ public abstract class AndroidScroller
 
     // ----------------------------------------------------------
     /**
-     * Creates a scroller for the specified view. Currently, only
-     * {@link android.widget.ListView} is supported.
+     * Creates a scroller for the specified view. Currently, lists,
+     * {@link ScrollView}, and {@link HorizontalScrollView} are supported.
      *
      * @param view the view to obtain a scroller for
      * @param instrumentation the instrumentation
@@ -91,6 +111,14 @@ public abstract class AndroidScroller
         {
             scroller = new AbsListViewScroller();
         }
+        else if (view instanceof ScrollView)
+        {
+            scroller = new ScrollViewScroller();
+        }
+        else if (view instanceof HorizontalScrollView)
+        {
+            scroller = new HorizontalScrollViewScroller();
+        }
         else
         {
             scroller = new NullScroller();
@@ -102,6 +130,23 @@ public abstract class AndroidScroller
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Gets a value indicating whether {@link #createScroller} would return a
+     * scroller that can actually scroll the specified view, so that callers
+     * can avoid creating scrollers for views that cannot scroll.
+     *
+     * @param view the view
+     * @return true if the view can be scrolled, otherwise false
+     */
+    public static boolean isScrollable(View view)
+    {
+        return view instanceof AbsListView
+            || view instanceof ScrollView
+            || view instanceof HorizontalScrollView;
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Scrolls the view in the specified direction. The amount of scrolling is
@@ -116,6 +161,50 @@ public abstract class AndroidScroller
     public abstract boolean scroll(Direction direction);
 
 
+    // ----------------------------------------------------------
+    /**
+     * Gets the direction in which this scroller moves through its content
+     * from beginning to end; that is, the direction used by
+     * {@link #doWhileScrolling(Callable)}.
+     *
+     * @return the forward direction
+     */
+    public Direction getForwardDirection()
+    {
+        return Direction.DOWN;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets a value indicating whether all of the content of the view exists
+     * as child views, even the content that is currently off screen. If so,
+     * there is no need to scroll in order to search the content; a search can
+     * simply {@link #scrollToView(View) jump} to the view it finds.
+     *
+     * @return true if all of the content of the view exists at all times
+     */
+    public boolean hasAllContent()
+    {
+        return false;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Scrolls directly to one of the descendants of the view, so that it is
+     * on screen. The default implementation does nothing.
+     *
+     * @param descendant the view to scroll to
+     * @return true if the view was scrolled, or false if this scroller cannot
+     *     scroll to the specified view
+     */
+    public boolean scrollToView(View descendant)
+    {
+        return false;
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Scrolls to the end of the view, repeatedly calling the specified task
@@ -139,7 +228,7 @@ public abstract class AndroidScroller
             taskDone = true;
         }
 
-        while (!taskDone && scroll(Direction.DOWN))
+        while (!taskDone && scroll(getForwardDirection()))
         {
             try
             {
@@ -155,19 +244,103 @@ public abstract class AndroidScroller
 
     // ----------------------------------------------------------
     /**
-     * A helper method to pause for 1/4 sec between scroll operations, wrapping
-     * the call to {@link Thread#sleep(long)} in an empty exception handler.
+     * Waits for a scroll operation to finish, so that the views it brought
+     * into view can be searched. This waits until the UI thread is idle and
+     * the {@link #scrollPosition() scroll position} has stopped changing from
+     * one idle period to the next, or until a timeout of a few seconds has
+     * elapsed, whichever comes first.
      */
-    protected void pause()
+    protected void waitForScrollToSettle()
     {
-        try
+        // Not SystemClock, which Robolectric shadows with a clock that does
+        // not advance on its own.
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT;
+
+        instrumentation.waitForIdleSync();
+        long position = scrollPosition();
+
+        while (System.currentTimeMillis() < deadline)
         {
-            Thread.sleep(250);
+            instrumentation.waitForIdleSync();
+            long newPosition = scrollPosition();
+
+            if (newPosition == position)
+            {
+                break;
+            }
+
+            position = newPosition;
         }
-        catch (InterruptedException e)
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the offset of a descendant from the top left corner of the
+     * content of the view.
+     *
+     * @param descendant a descendant of the view
+     * @return the offset as an array {x, y}, or null if the specified view is
+     *     not a descendant of the view
+     */
+    protected int[] offsetOf(View descendant)
+    {
+        int[] offset = new int[2];
+        View current = descendant;
+
+        while (current != view)
         {
-            // Do nothing.
+            offset[0] += current.getLeft();
+            offset[1] += current.getTop();
+
+            ViewParent parent = current.getParent();
+
+            if (!(parent instanceof View))
+            {
+                return null;
+            }
+
+            current = (View) parent;
         }
+
+        return offset;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Scrolls the view to the specified scroll offsets on the UI thread, and
+     * waits for it to settle.
+     *
+     * @param x the new horizontal scroll offset
+     * @param y the new vertical scroll offset
+     */
+    protected void scrollTo(final int x, final int y)
+    {
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run()
+            {
+                view.scrollTo(x, y);
+            }
+        });
+
+        waitForScrollToSettle();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets a value that summarizes how far the view has been scrolled, used
+     * to detect when a scroll operation has settled. Subclasses for views that
+     * scroll by some other means than their scroll offsets should override
+     * this.
+     *
+     * @return the current scroll position
+     */
+    protected long scrollPosition()
+    {
+        return ((long) view.getScrollX() << 32)
+            | (view.getScrollY() & 0xffffffffL);
     }
 
 
@@ -219,12 +392,58 @@ public abstract class AndroidScroller
                     scrollToLine(lv.getFirstVisiblePosition() + 1);
                 }
             }
+            else if (direction == Direction.UP)
+            {
+                if (lv.getFirstVisiblePosition() <= 0)
+                {
+                    scrollToLine(0);
+                    return false;
+                }
+
+                int page = Math.max(1,
+                    lv.getLastVisiblePosition() - lv.getFirstVisiblePosition());
+                scrollToLine(Math.max(0, lv.getFirstVisiblePosition() - page));
+            }
+            else
+            {
+                // Lists only scroll vertically.
+                return false;
+            }
+
+            waitForScrollToSettle();
+            return true;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public boolean scrollToView(View descendant)
+        {
+            // Only works for rows that are currently attached to the list.
+            int position = ((AbsListView) view).getPositionForView(descendant);
+
+            if (position == AbsListView.INVALID_POSITION)
+            {
+                return false;
+            }
 
-            pause();
+            scrollToLine(position);
+            waitForScrollToSettle();
             return true;
         }
 
 
+        // ----------------------------------------------------------
+        @Override
+        protected long scrollPosition()
+        {
+            AbsListView lv = (AbsListView) view;
+
+            return ((long) lv.getFirstVisiblePosition() << 32)
+                | (lv.getLastVisiblePosition() & 0xffffffffL);
+        }
+
+
         // ----------------------------------------------------------
         private void scrollToLine(final int line)
         {
@@ -236,4 +455,157 @@ public abstract class AndroidScroller
             });
         }
     }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A scroller for ScrollViews, which scroll vertically.
+     */
+    private static class ScrollViewScroller extends AndroidScroller
+    {
+        // ----------------------------------------------------------
+        @Override
+        public boolean scroll(Direction direction)
+        {
+            int page = view.getHeight();
+
+            if (direction == Direction.DOWN)
+            {
+                scrollTo(view.getScrollX(), view.getScrollY() + page);
+            }
+            else if (direction == Direction.UP)
+            {
+                scrollTo(view.getScrollX(), view.getScrollY() - page);
+            }
+            else
+            {
+                return false;
+            }
+
+            return canScrollFurther(direction);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public boolean hasAllContent()
+        {
+            return true;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public boolean scrollToView(View descendant)
+        {
+            int[] offset = offsetOf(descendant);
+
+            if (offset == null)
+            {
+                return false;
+            }
+
+            // ScrollView clamps the offset to the extent of its content.
+            scrollTo(view.getScrollX(), offset[1]);
+            return true;
+        }
+
+
+        // ----------------------------------------------------------
+        private boolean canScrollFurther(Direction direction)
+        {
+            ScrollView sv = (ScrollView) view;
+
+            if (direction == Direction.UP)
+            {
+                return sv.getScrollY() > 0;
+            }
+            else
+            {
+                return sv.getChildCount() > 0 && sv.getScrollY()
+                    + sv.getHeight() < sv.getChildAt(0).getHeight();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A scroller for HorizontalScrollViews, which scroll horizontally.
+     */
+    private static class HorizontalScrollViewScroller extends AndroidScroller
+    {
+        // ----------------------------------------------------------
+        @Override
+        public boolean scroll(Direction direction)
+        {
+            int page = view.getWidth();
+
+            if (direction == Direction.RIGHT)
+            {
+                scrollTo(view.getScrollX() + page, view.getScrollY());
+            }
+            else if (direction == Direction.LEFT)
+            {
+                scrollTo(view.getScrollX() - page, view.getScrollY());
+            }
+            else
+            {
+                return false;
+            }
+
+            return canScrollFurther(direction);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public Direction getForwardDirection()
+        {
+            return Direction.RIGHT;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public boolean hasAllContent()
+        {
+            return true;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public boolean scrollToView(View descendant)
+        {
+            int[] offset = offsetOf(descendant);
+
+            if (offset == null)
+            {
+                return false;
+            }
+
+            // HorizontalScrollView clamps the offset to the extent of its
+            // content.
+            scrollTo(offset[0], view.getScrollY());
+            return true;
+        }
+
+
+        // ----------------------------------------------------------
+        private boolean canScrollFurther(Direction direction)
+        {
+            HorizontalScrollView hsv = (HorizontalScrollView) view;
+
+            if (direction == Direction.LEFT)
+            {
+                return hsv.getScrollX() > 0;
+            }
+            else
+            {
+                return hsv.getChildCount() > 0 && hsv.getScrollX()
+                    + hsv.getWidth() < hsv.getChildAt(0).getWidth();
+            }
+        }
+    }
 }
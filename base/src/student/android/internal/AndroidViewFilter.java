@@ -134,6 +134,9 @@ public abstract class AndroidViewFilter
     //~ Instance/static variables .............................................
 
     private String description;
+    private Kind kind;
+    private Object argument;
+    private AndroidViewFilter[] operands;
 
 
     //~ Constructor ...........................................................
@@ -147,8 +150,29 @@ public abstract class AndroidViewFilter
      *                    {@link #toString()}.
      */
     protected AndroidViewFilter(String description)
+    {
+        this(description, Kind.OTHER, null);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new filter object that describes its own structure, so that
+     * searches using it can be planned by {@link AndroidViewQueryPlan}.
+     * @param description A string description of this filter, used in
+     *                    {@link #toString()}.
+     * @param kind        The kind of this filter.
+     * @param argument    The value a primitive filter compares against, or
+     *                    null.
+     * @param operands    The filters that a compound filter combines.
+     */
+    protected AndroidViewFilter(String description, Kind kind,
+        Object argument, AndroidViewFilter... operands)
     {
         this.description = description;
+        this.kind = kind;
+        this.argument = argument;
+        this.operands = operands;
     }
 
 
@@ -184,6 +208,12 @@ public abstract class AndroidViewFilter
             return "(" + leftDescription + " AND " + rightDescription + ")";
         }
 
+        // ----------------------------------------------------------
+        @Override
+        protected Kind combinedKind()
+        {
+            return Kind.AND;
+        }
     };
 
 
@@ -212,11 +242,52 @@ public abstract class AndroidViewFilter
             return "(" + leftDescription + " OR " + rightDescription + ")";
         }
 
+        // ----------------------------------------------------------
+        @Override
+        protected Kind combinedKind()
+        {
+            return Kind.OR;
+        }
     };
 
 
     //~ Public Methods ........................................................
 
+    // ----------------------------------------------------------
+    /**
+     * The different kinds of filters, as reported by {@link #getKind()}.
+     * Filters created by client code (by subclassing this class directly)
+     * are always {@link #OTHER}.
+     */
+    public static enum Kind
+    {
+        /** Checks a view's id. */
+        ID,
+        /** Checks a view's class. */
+        TYPE,
+        /** Checks a view's text for an exact match. */
+        TEXT,
+        /** Checks a view's text for a substring. */
+        TEXT_CONTAINS,
+        /** Checks a view's focus, enabled state, or visibility. */
+        STATE,
+        /** Checks a view's size or location. */
+        BOUNDS,
+        /** Checks a view's parent. */
+        PARENT,
+        /** Checks a view's ancestors. */
+        ANCESTOR,
+        /** Succeeds if all of its operands succeed. */
+        AND,
+        /** Succeeds if any of its operands succeed. */
+        OR,
+        /** Succeeds if its single operand fails. */
+        NOT,
+        /** Any other filter, whose behavior is unknown. */
+        OTHER
+    }
+
+
     // ----------------------------------------------------------
     /**
      *  This base class represents an operator used to create a query.
@@ -558,7 +629,8 @@ public abstract class AndroidViewFilter
         protected AndroidViewFilter applySelfTo(final AndroidViewFilter otherFilter)
         {
             return new AndroidViewFilter(description(
-                AndroidViewFilter.this.toString(), otherFilter.toString()))
+                AndroidViewFilter.this.toString(), otherFilter.toString()),
+                combinedKind(), null, AndroidViewFilter.this, otherFilter)
             {
                 public boolean test(View view)
                 {
@@ -594,6 +666,20 @@ public abstract class AndroidViewFilter
          */
         protected abstract String description(
             String leftDescription, String rightDescription);
+
+
+        // ----------------------------------------------------------
+        /**
+         * Subclasses can override this to describe the combined filters
+         * that they create, so that they can be reordered by a
+         * {@link AndroidViewQueryPlan}.  The default implementation
+         * returns {@link Kind#OTHER}, which the planner never reorders.
+         * @return The kind of the combined filter.
+         */
+        protected Kind combinedKind()
+        {
+            return Kind.OTHER;
+        }
     }
 
 
@@ -623,7 +709,8 @@ public abstract class AndroidViewFilter
     public final AndroidViewFilter and(final AndroidViewFilter otherFilter)
     {
         final AndroidViewFilter self = this;
-        AndroidViewFilter gf =  new AndroidViewFilter("(" + this + " AND " + otherFilter + ")")
+        AndroidViewFilter gf =  new AndroidViewFilter("(" + this + " AND " + otherFilter + ")",
+            Kind.AND, null, this, otherFilter)
         {
             public boolean test(View view)
             {
@@ -649,7 +736,8 @@ public abstract class AndroidViewFilter
     public final AndroidViewFilter or(final AndroidViewFilter otherFilter)
     {
         final AndroidViewFilter self = this;
-        AndroidViewFilter gf = new AndroidViewFilter("(" + this + " OR " + otherFilter + ")")
+        AndroidViewFilter gf = new AndroidViewFilter("(" + this + " OR " + otherFilter + ")",
+            Kind.OR, null, this, otherFilter)
         {
             public boolean test(View view)
             {
@@ -671,6 +759,47 @@ public abstract class AndroidViewFilter
     public abstract boolean test(View view);
 
 
+    // ----------------------------------------------------------
+    /**
+     * Get the kind of this filter, which describes the property it checks
+     * (for primitive filters) or how it combines its operands (for
+     * compound filters).
+     * @return The kind of this filter.
+     */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the value that a primitive filter compares against: the id (an
+     * {@link Integer}) for {@link Kind#ID}, the class for {@link Kind#TYPE},
+     * the string for {@link Kind#TEXT} and {@link Kind#TEXT_CONTAINS}, the
+     * view for {@link Kind#PARENT}, and the view parent for
+     * {@link Kind#ANCESTOR}.
+     * @return The argument of this filter, or null if it has none.
+     */
+    public Object getArgument()
+    {
+        return argument;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the filters that a compound filter ({@link Kind#AND},
+     * {@link Kind#OR}, or {@link Kind#NOT}) combines.
+     * @return The operands of this filter, in evaluation order (an empty
+     *         array for primitive filters).
+     */
+    public AndroidViewFilter[] getOperands()
+    {
+        return operands.clone();
+    }
+
+
     // ----------------------------------------------------------
     /**
      * This class represents the "where" operator that is used to begin
@@ -722,7 +851,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static AndroidViewFilter idIs(final int id)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("id = \"" + id + "\"")
+        AndroidViewFilter gf = new AndroidViewFilter("id = \"" + id + "\"",
+            Kind.ID, id)
         {
             public boolean test(View view)
             {
@@ -736,7 +866,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static AndroidViewFilter textIs(final String text)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("text = \"" + text + "\"")
+        AndroidViewFilter gf = new AndroidViewFilter("text = \"" + text + "\"",
+            Kind.TEXT, text)
         {
             public boolean test(View view)
             {
@@ -759,7 +890,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static AndroidViewFilter textContains(final String text)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("text = \"" + text + "\"")
+        AndroidViewFilter gf = new AndroidViewFilter("text = \"" + text + "\"",
+            Kind.TEXT_CONTAINS, text)
         {
             public boolean test(View view)
             {
@@ -783,7 +915,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static AndroidViewFilter hasFocusIs(final boolean value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("hasFocus = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("hasFocus = " + value,
+            Kind.STATE, null)
         {
             public boolean test(View view)
             {
@@ -797,7 +930,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter enabledIs(final boolean value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("enabled = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("enabled = " + value,
+            Kind.STATE, null)
         {
             public boolean test(View view)
             {
@@ -811,7 +945,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter visibilityIs(final boolean value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("visibility = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("visibility = " + value,
+            Kind.STATE, null)
         {
             public boolean test(View view)
             {
@@ -825,7 +960,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter visibilityIs(final int value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("visibility = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("visibility = " + value,
+            Kind.STATE, null)
         {
             public boolean test(View view)
             {
@@ -839,7 +975,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter widthIs(final int value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("width = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("width = " + value,
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -853,7 +990,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter heightIs(final int value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("height = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("height = " + value,
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -867,7 +1005,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter sizeIs(final int width, final int height)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("size = (" + width + ", " + height + ")")
+        AndroidViewFilter gf = new AndroidViewFilter("size = (" + width + ", " + height + ")",
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -884,7 +1023,8 @@ public abstract class AndroidViewFilter
         final int maxWidth, final int maxHeight)
     {
         AndroidViewFilter gf = new AndroidViewFilter(
-            "sizeIsWithin(" + maxWidth + ", " + maxHeight + ")")
+            "sizeIsWithin(" + maxWidth + ", " + maxHeight + ")",
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -899,7 +1039,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter xLocationIs(final int value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("xLocation = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("xLocation = " + value,
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -913,7 +1054,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter yLocationIs(final int value)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("yLocation = " + value)
+        AndroidViewFilter gf = new AndroidViewFilter("yLocation = " + value,
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -927,7 +1069,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter locationIs(final int x, final int y)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("location = (" + x + ", " + y + ")")
+        AndroidViewFilter gf = new AndroidViewFilter("location = (" + x + ", " + y + ")",
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -941,7 +1084,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter isLocatedWithin(final Rect region)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("isLocatedWithin(" + region + ")")
+        AndroidViewFilter gf = new AndroidViewFilter("isLocatedWithin(" + region + ")",
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -955,7 +1099,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static final AndroidViewFilter isContainedWithin(final Rect region)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("isContainedWithin(" + region + ")")
+        AndroidViewFilter gf = new AndroidViewFilter("isContainedWithin(" + region + ")",
+            Kind.BOUNDS, null)
         {
             public boolean test(View view)
             {
@@ -971,7 +1116,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static AndroidViewFilter typeIs(final Class<? extends View> aClass)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("type = " + aClass.getSimpleName())
+        AndroidViewFilter gf = new AndroidViewFilter("type = " + aClass.getSimpleName(),
+            Kind.TYPE, aClass)
         {
             public boolean test(View view)
             {
@@ -985,7 +1131,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static AndroidViewFilter parentIs(final View parent)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("parent is " + parent)
+        AndroidViewFilter gf = new AndroidViewFilter("parent is " + parent,
+            Kind.PARENT, parent)
         {
             public boolean test(View view)
             {
@@ -999,7 +1146,8 @@ public abstract class AndroidViewFilter
     // ----------------------------------------------------------
     private static AndroidViewFilter ancestorIs(final ViewParent ancestor)
     {
-        AndroidViewFilter gf = new AndroidViewFilter("ancestor is " + ancestor)
+        AndroidViewFilter gf = new AndroidViewFilter("ancestor is " + ancestor,
+            Kind.ANCESTOR, ancestor)
         {
             public boolean test(View view)
             {
@@ -1019,7 +1167,8 @@ public abstract class AndroidViewFilter
     private static final AndroidViewFilter primitiveNot(
         final AndroidViewFilter otherFilter)
     {
-        return new AndroidViewFilter("(NOT " + otherFilter + ")")
+        return new AndroidViewFilter("(NOT " + otherFilter + ")",
+            Kind.NOT, null, otherFilter)
         {
             public boolean test(View view)
             {
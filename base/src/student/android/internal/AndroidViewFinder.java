@@ -22,14 +22,12 @@
 package student.android.internal;
 
 import android.view.View;
-import android.view.ViewGroup;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 // -------------------------------------------------------------------------
 /**
- * A class that recursively finds views that match a certain criteria.
+ * A class that finds views that match a certain criteria.
  *
  * @author  Tony Allevato
  * @author  Last changed by $Author$
@@ -42,6 +40,9 @@ public class AndroidViewFinder
     // The root views that will be searched.
     private List<View> roots;
 
+    // A snapshot of the views under the roots, if one is available.
+    private AndroidViewIndex index;
+
 
     //~ Constructors ..........................................................
 
@@ -72,6 +73,20 @@ public class AndroidViewFinder
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Creates a new {@code AndroidViewFinder} that searches the views in the
+     * specified snapshot, instead of walking the view hierarchy itself.
+     *
+     * @param index the snapshot of the view hierarchy to search
+     */
+    public AndroidViewFinder(AndroidViewIndex index)
+    {
+        this.roots = index.getRoots();
+        this.index = index;
+    }
+
+
     //~ Methods ...............................................................
 
     // ----------------------------------------------------------
@@ -83,47 +98,108 @@ public class AndroidViewFinder
      */
     public List<View> find(AndroidViewFilter filter)
     {
-        ArrayList<View> viewsFound = new ArrayList<View>();
-
-        ArrayList<View> reverseRoots = new ArrayList<View>(roots);
-        Collections.reverse(reverseRoots);
-
-        for (View root : reverseRoots)
-        {
-            findRecursively(filter, root, viewsFound);
-        }
-
-        return viewsFound;
+        return find(filter, Integer.MAX_VALUE);
     }
 
 
     // ----------------------------------------------------------
     /**
-     * A recursive helper method used to implement
-     * {@link #find(AndroidViewFilter)}.
+     * Gets a list of the first views that match the specified filter,
+     * stopping the search as soon as {@code limit} views have been found.
+     * For example, a limit of 2 is enough to tell whether a filter matches
+     * a unique view.
      *
      * @param filter the filter to match
-     * @param view the current view being tested
-     * @param viewsFound a List that collects the views that match the filter
+     * @param limit the maximum number of views to find
+     * @return the list of Views that match the filter, which contains at most
+     *     {@code limit} views
      */
-    private void findRecursively(AndroidViewFilter filter, View view,
-                                 List<View> viewsFound)
+    public List<View> find(AndroidViewFilter filter, int limit)
     {
-        if (filter.test(view))
+        ArrayList<View> viewsFound = new ArrayList<View>();
+
+        if (limit <= 0)
+        {
+            return viewsFound;
+        }
+
+        AndroidViewQueryPlan plan = new AndroidViewQueryPlan(filter);
+
+        List<View> candidates = plan.candidates(roots, index);
+
+        if (candidates == null && index != null)
         {
-            viewsFound.add(view);
+            candidates = index.allViews();
         }
 
-        if (view instanceof ViewGroup)
+        if (candidates != null)
         {
-            final ViewGroup vg = (ViewGroup) view;
+            boolean stale = false;
+
+            for (View view : candidates)
+            {
+                if (plan.matches(view))
+                {
+                    if (index != null && !index.isAttached(view))
+                    {
+                        // The hierarchy has changed since the snapshot was
+                        // taken, so it cannot be trusted for this search.
+                        stale = true;
+                        break;
+                    }
+
+                    viewsFound.add(view);
+
+                    if (viewsFound.size() >= limit)
+                    {
+                        break;
+                    }
+                }
+            }
 
-            for (int i = 0; i < vg.getChildCount(); i++)
+            if (!stale)
+            {
+                return viewsFound;
+            }
+
+            AndroidViewIndex.invalidateAll();
+            viewsFound.clear();
+        }
+
+        AndroidViewTraversal traversal = new AndroidViewTraversal();
+        int walk = traversal.begin(roots);
+        View view;
+
+        while ((view = traversal.next(walk)) != null)
+        {
+            if (plan.matches(view))
             {
-                View child = vg.getChildAt(i);
+                viewsFound.add(view);
 
-                findRecursively(filter, child, viewsFound);
+                if (viewsFound.size() >= limit)
+                {
+                    traversal.end(walk);
+                    break;
+                }
             }
         }
+
+        return viewsFound;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the first view that matches the specified filter, without
+     * searching the rest of the hierarchy.
+     *
+     * @param filter the filter to match
+     * @return the first View that matches the filter, or null if there is
+     *     none
+     */
+    public View findFirst(AndroidViewFilter filter)
+    {
+        List<View> views = find(filter, 1);
+        return views.isEmpty() ? null : views.get(0);
     }
 }
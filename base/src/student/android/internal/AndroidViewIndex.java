@@ -0,0 +1,317 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.android.internal;
+
+import android.view.View;
+import android.view.ViewParent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// -------------------------------------------------------------------------
+/**
+ * <p>
+ * A snapshot of a view hierarchy that indexes its views by id, by type, and
+ * by text, so that common lookups become hash probes instead of full walks
+ * of the hierarchy.
+ * </p><p>
+ * A snapshot remains valid until the next call to {@link #invalidateAll()},
+ * which marks the start of a new "UI epoch". The caller decides how long a
+ * snapshot can be reused for; the device test harness takes a new one each
+ * time the main thread has become idle, as reported by {@link IdleTracker}.
+ * </p><p>
+ * A change that the snapshot was not told about can still remove views from
+ * the hierarchy. {@link AndroidViewFinder} checks with
+ * {@link #isAttached(View)} that each view it finds is still there, and
+ * walks the live hierarchy instead if one is not.
+ * </p><p>
+ * The lists returned by the lookup methods are in the same order that
+ * {@link AndroidViewFinder} would visit the views (roots in reverse order,
+ * each searched depth-first), and must not be modified by the caller.
+ * </p>
+ *
+ * @author  Tony Allevato
+ * @author  Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class AndroidViewIndex
+{
+    //~ Static/instance variables .............................................
+
+    // Incremented every time the UI may have changed.
+    private static volatile int currentEpoch;
+
+    private List<View> roots;
+    private int epoch;
+
+    // All views in the snapshot, in search order.
+    private List<View> views;
+    private Map<Integer, List<View>> viewsById;
+
+    // Built lazily, since most suites only ever ask for a few types and
+    // reading the text of every view is comparatively expensive.
+    private Map<Class<?>, List<View>> viewsByType;
+    private Map<String, List<View>> viewsByText;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new snapshot of the view hierarchies under the specified
+     * roots.
+     *
+     * @param roots the root views
+     */
+    public AndroidViewIndex(List<View> roots)
+    {
+        this.epoch = currentEpoch;
+        this.roots = new ArrayList<View>(roots);
+        this.views = new ArrayList<View>();
+        this.viewsById = new HashMap<Integer, List<View>>();
+
+        AndroidViewTraversal traversal = new AndroidViewTraversal();
+        int walk = traversal.begin(this.roots);
+        View view;
+
+        while ((view = traversal.next(walk)) != null)
+        {
+            add(view);
+        }
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Marks every existing snapshot as stale, so that the next lookup will
+     * build a new one.
+     */
+    public static void invalidateAll()
+    {
+        currentEpoch++;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets a value indicating whether this snapshot can still be used to
+     * search the specified roots; that is, whether the roots are the same
+     * ones it was built from and nothing has been invalidated since.
+     *
+     * @param currentRoots the roots that are about to be searched
+     * @return true if this snapshot is still current, otherwise false
+     */
+    public boolean isCurrentFor(List<View> currentRoots)
+    {
+        if (epoch != currentEpoch || currentRoots.size() != roots.size())
+        {
+            return false;
+        }
+
+        for (int i = 0; i < roots.size(); i++)
+        {
+            if (roots.get(i) != currentRoots.get(i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets a value indicating whether the specified view is still in the
+     * hierarchy under one of the roots of this snapshot.
+     *
+     * @param view the view to check
+     * @return true if the view is still attached under one of the roots,
+     *     otherwise false
+     */
+    public boolean isAttached(View view)
+    {
+        while (!roots.contains(view))
+        {
+            ViewParent parent = view.getParent();
+
+            if (!(parent instanceof View))
+            {
+                return false;
+            }
+
+            view = (View) parent;
+        }
+
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the root views that this snapshot was built from.
+     *
+     * @return the root views
+     */
+    public List<View> getRoots()
+    {
+        return roots;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets all of the views in this snapshot, in search order.
+     *
+     * @return the list of all views
+     */
+    public List<View> allViews()
+    {
+        return views;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the views in this snapshot that have the specified id.
+     *
+     * @param id the id to look for
+     * @return the list of views with that id
+     */
+    public List<View> viewsWithId(int id)
+    {
+        List<View> result = viewsById.get(id);
+
+        if (result == null)
+        {
+            result = Collections.emptyList();
+        }
+
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the views in this snapshot that are instances of the specified
+     * class (or any of its subclasses).
+     *
+     * @param type the class to look for
+     * @return the list of views of that type
+     */
+    public List<View> viewsOfType(Class<?> type)
+    {
+        if (viewsByType == null)
+        {
+            viewsByType = new HashMap<Class<?>, List<View>>();
+        }
+
+        List<View> result = viewsByType.get(type);
+
+        if (result == null)
+        {
+            result = new ArrayList<View>();
+
+            for (View view : views)
+            {
+                if (type.isAssignableFrom(view.getClass()))
+                {
+                    result.add(view);
+                }
+            }
+
+            viewsByType.put(type, result);
+        }
+
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the views in this snapshot whose {@code getText()} method returns
+     * exactly the specified text.
+     *
+     * @param text the text to look for
+     * @return the list of views with that text
+     */
+    public List<View> viewsWithText(String text)
+    {
+        if (viewsByText == null)
+        {
+            viewsByText = new HashMap<String, List<View>>();
+
+            for (View view : views)
+            {
+                String viewText = AndroidDebug.tryGetText(view);
+
+                if (viewText != null)
+                {
+                    List<View> bucket = viewsByText.get(viewText);
+
+                    if (bucket == null)
+                    {
+                        bucket = new ArrayList<View>(1);
+                        viewsByText.put(viewText, bucket);
+                    }
+
+                    bucket.add(view);
+                }
+            }
+        }
+
+        List<View> result = viewsByText.get(text);
+
+        if (result == null)
+        {
+            result = Collections.emptyList();
+        }
+
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds a view to the snapshot.
+     *
+     * @param view the view to add
+     */
+    private void add(View view)
+    {
+        views.add(view);
+
+        List<View> bucket = viewsById.get(view.getId());
+
+        if (bucket == null)
+        {
+            bucket = new ArrayList<View>(1);
+            viewsById.put(view.getId(), bucket);
+        }
+
+        bucket.add(view);
+    }
+}
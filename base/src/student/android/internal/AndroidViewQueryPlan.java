@@ -0,0 +1,396 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.android.internal;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// -------------------------------------------------------------------------
+/**
+ * <p>
+ * A plan for searching a view hierarchy with an {@link AndroidViewFilter},
+ * built from the structure that the filter exposes.
+ * </p><p>
+ * The plan does two things. First, it narrows the set of views that have to
+ * be tested at all: an {@code idIs}, {@code textIs} or {@code typeIs}
+ * conjunct becomes a probe of an {@link AndroidViewIndex}, and a
+ * {@code parentIs} or {@code ancestorIs} conjunct limits the search to the
+ * children or the subtree of that view. Second, it reorders the operands of
+ * each {@code and} and {@code or} so that cheap and selective predicates are
+ * tested first. Filters whose behavior is unknown ({@link
+ * AndroidViewFilter.Kind#OTHER}) are never moved past, since client code may
+ * rely on the predicates to their left having already succeeded.
+ * </p>
+ *
+ * @author  Tony Allevato
+ * @author  Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class AndroidViewQueryPlan
+{
+    //~ Static/instance variables .............................................
+
+    // The filter that will actually be tested, with its operands reordered.
+    private AndroidViewFilter plannedFilter;
+
+    // The top-level conjuncts of the original filter.
+    private List<AndroidViewFilter> conjuncts;
+
+    private static final Comparator<AndroidViewFilter> byCost =
+        new Comparator<AndroidViewFilter>() {
+            public int compare(AndroidViewFilter left, AndroidViewFilter right)
+            {
+                return costOf(left) - costOf(right);
+            }
+        };
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a plan for searching with the specified filter.
+     *
+     * @param filter the filter to match
+     */
+    public AndroidViewQueryPlan(AndroidViewFilter filter)
+    {
+        this.conjuncts = new ArrayList<AndroidViewFilter>();
+        flatten(filter, AndroidViewFilter.Kind.AND, conjuncts);
+
+        this.plannedFilter = reorder(filter);
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Evaluates whether a view matches the filter that this plan was
+     * created from.
+     *
+     * @param view the view to check
+     * @return true if the view matches the filter
+     */
+    public boolean matches(View view)
+    {
+        return plannedFilter.test(view);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the views under the specified roots that could possibly match the
+     * filter, so that the rest of the hierarchy does not need to be searched.
+     * The views returned are only candidates, in search order; each must
+     * still be checked with {@link #matches(View)}.
+     *
+     * @param roots the root views being searched
+     * @param index a current snapshot of the views under the roots, or null
+     *     if none is available
+     * @return the list of candidate views, or null if every view under the
+     *     roots must be checked
+     */
+    public List<View> candidates(List<View> roots, AndroidViewIndex index)
+    {
+        AndroidViewFilter id = conjunctOfKind(AndroidViewFilter.Kind.ID);
+        if (index != null && id != null)
+        {
+            return index.viewsWithId((Integer) id.getArgument());
+        }
+
+        View parent = anchorWithin(AndroidViewFilter.Kind.PARENT, roots);
+        if (parent != null)
+        {
+            List<View> children = new ArrayList<View>();
+
+            if (parent instanceof ViewGroup)
+            {
+                ViewGroup vg = (ViewGroup) parent;
+
+                for (int i = 0; i < vg.getChildCount(); i++)
+                {
+                    children.add(vg.getChildAt(i));
+                }
+            }
+
+            return children;
+        }
+
+        AndroidViewFilter text = conjunctOfKind(AndroidViewFilter.Kind.TEXT);
+        if (index != null && text != null)
+        {
+            return index.viewsWithText((String) text.getArgument());
+        }
+
+        View ancestor = anchorWithin(AndroidViewFilter.Kind.ANCESTOR, roots);
+        if (ancestor != null)
+        {
+            List<View> descendants = new ArrayList<View>();
+
+            AndroidViewTraversal traversal = new AndroidViewTraversal();
+            int walk = traversal.begin(ancestor);
+            View view;
+
+            // Skip the ancestor itself, which is returned first.
+            traversal.next(walk);
+
+            while ((view = traversal.next(walk)) != null)
+            {
+                descendants.add(view);
+            }
+
+            return descendants;
+        }
+
+        AndroidViewFilter type = conjunctOfKind(AndroidViewFilter.Kind.TYPE);
+        if (index != null && type != null)
+        {
+            return index.viewsOfType((Class<?>) type.getArgument());
+        }
+
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the first top-level conjunct of the specified kind.
+     *
+     * @param kind the kind of filter to look for
+     * @return the first conjunct of that kind, or null if there is none
+     */
+    private AndroidViewFilter conjunctOfKind(AndroidViewFilter.Kind kind)
+    {
+        for (AndroidViewFilter conjunct : conjuncts)
+        {
+            if (conjunct.getKind() == kind)
+            {
+                return conjunct;
+            }
+        }
+
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the view named by the first {@code parentIs} or
+     * {@code ancestorIs} conjunct, but only if that view lies under one of
+     * the roots being searched; otherwise, restricting the search to it
+     * would not be equivalent to searching the roots.
+     *
+     * @param kind either PARENT or ANCESTOR
+     * @param roots the root views being searched
+     * @return the view, or null if the search cannot be restricted to it
+     */
+    private View anchorWithin(AndroidViewFilter.Kind kind, List<View> roots)
+    {
+        AndroidViewFilter conjunct = conjunctOfKind(kind);
+
+        if (conjunct == null || !(conjunct.getArgument() instanceof View))
+        {
+            return null;
+        }
+
+        View anchor = (View) conjunct.getArgument();
+        View view = anchor;
+
+        while (true)
+        {
+            if (roots.contains(view))
+            {
+                return anchor;
+            }
+
+            ViewParent parent = view.getParent();
+
+            if (parent instanceof View)
+            {
+                view = (View) parent;
+            }
+            else
+            {
+                return null;
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Collects the operands of a chain of compound filters of the same kind
+     * (for example, {@code a AND (b AND c)}) into a single list, in
+     * evaluation order.
+     *
+     * @param filter the filter to flatten
+     * @param kind AND or OR
+     * @param operands the list to add the operands to
+     */
+    private static void flatten(AndroidViewFilter filter,
+        AndroidViewFilter.Kind kind, List<AndroidViewFilter> operands)
+    {
+        if (filter.getKind() == kind)
+        {
+            for (AndroidViewFilter operand : filter.getOperands())
+            {
+                flatten(operand, kind, operands);
+            }
+        }
+        else
+        {
+            operands.add(filter);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a filter equivalent to the specified one, but with the operands
+     * of every {@code and} and {@code or} sorted by cost.
+     *
+     * @param filter the filter to reorder
+     * @return the reordered filter
+     */
+    private static AndroidViewFilter reorder(AndroidViewFilter filter)
+    {
+        final AndroidViewFilter.Kind kind = filter.getKind();
+
+        if (kind == AndroidViewFilter.Kind.AND
+            || kind == AndroidViewFilter.Kind.OR)
+        {
+            List<AndroidViewFilter> operands =
+                new ArrayList<AndroidViewFilter>();
+            flatten(filter, kind, operands);
+
+            for (int i = 0; i < operands.size(); i++)
+            {
+                operands.set(i, reorder(operands.get(i)));
+            }
+
+            // Sort each run of operands between filters of unknown behavior,
+            // leaving those filters where they are.
+            int start = 0;
+            for (int i = 0; i <= operands.size(); i++)
+            {
+                if (i == operands.size() || operands.get(i).getKind()
+                    == AndroidViewFilter.Kind.OTHER)
+                {
+                    Collections.sort(operands.subList(start, i), byCost);
+                    start = i + 1;
+                }
+            }
+
+            final AndroidViewFilter[] ordered =
+                operands.toArray(new AndroidViewFilter[operands.size()]);
+
+            return new AndroidViewFilter(filter.toString(), kind, null,
+                ordered)
+            {
+                public boolean test(View view)
+                {
+                    boolean result = (kind == Kind.AND);
+
+                    for (AndroidViewFilter operand : ordered)
+                    {
+                        if (operand.test(view) != result)
+                        {
+                            return !result;
+                        }
+                    }
+
+                    return result;
+                }
+            };
+        }
+        else if (kind == AndroidViewFilter.Kind.NOT)
+        {
+            final AndroidViewFilter operand =
+                reorder(filter.getOperands()[0]);
+
+            return new AndroidViewFilter(filter.toString(), kind, null,
+                operand)
+            {
+                public boolean test(View view)
+                {
+                    return !operand.test(view);
+                }
+            };
+        }
+        else
+        {
+            return filter;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Estimates the relative cost of testing a filter against one view.
+     *
+     * @param filter the filter
+     * @return the estimated cost
+     */
+    private static int costOf(AndroidViewFilter filter)
+    {
+        switch (filter.getKind())
+        {
+            case ID:
+                return 1;
+
+            case STATE:
+            case PARENT:
+                return 2;
+
+            case TYPE:
+            case BOUNDS:
+                return 3;
+
+            case ANCESTOR:
+                return 5;
+
+            case TEXT:
+            case TEXT_CONTAINS:
+                // Reads the text through reflection.
+                return 10;
+
+            case AND:
+            case OR:
+            case NOT:
+                int cost = 0;
+                for (AndroidViewFilter operand : filter.getOperands())
+                {
+                    cost += costOf(operand);
+                }
+                return cost;
+
+            default:
+                return 8;
+        }
+    }
+}
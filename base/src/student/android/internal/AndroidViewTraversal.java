@@ -0,0 +1,200 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.android.internal;
+
+import android.view.View;
+import android.view.ViewGroup;
+import java.util.List;
+
+// -------------------------------------------------------------------------
+/**
+ * <p>
+ * Walks view hierarchies depth-first (each view before its children, and
+ * children in order) using an explicit stack instead of recursion, so that
+ * deeply nested layouts cannot overflow the Java stack and no objects are
+ * allocated per view visited.
+ * </p><p>
+ * A traversal is used like an iterator. {@link #begin(View)} starts a walk
+ * and returns a marker for it, and {@link #next(int)} returns the views of
+ * that walk one at a time. Since each walk only uses the part of the stack
+ * above its marker, a new walk can be started in the middle of another one
+ * (for example, to search the children of a scrolling container once per
+ * page) and the outer walk resumes where it left off once the inner one is
+ * finished. A walk that is abandoned early must be closed with
+ * {@link #end(int)}.
+ * </p><p>
+ * A traversal is not thread-safe, but it can be reused for any number of
+ * walks.
+ * </p>
+ *
+ * @author  Tony Allevato
+ * @author  Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class AndroidViewTraversal
+{
+    //~ Static/instance variables .............................................
+
+    private View[] stack;
+    private int size;
+
+    // The position in the stack where the children of the view most recently
+    // returned by next() begin.
+    private int childrenStart;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new {@code AndroidViewTraversal}.
+     */
+    public AndroidViewTraversal()
+    {
+        stack = new View[32];
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Starts a walk of the hierarchy under the specified root.
+     *
+     * @param root the root view
+     * @return the marker that identifies this walk
+     */
+    public int begin(View root)
+    {
+        int base = size;
+        push(root);
+        childrenStart = size;
+        return base;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Starts a walk of the hierarchies under the specified roots. As in
+     * {@link AndroidViewFinder}, the roots are visited in reverse order, so
+     * that windows on top (such as dialogs) are searched first.
+     *
+     * @param roots the root views
+     * @return the marker that identifies this walk
+     */
+    public int begin(List<View> roots)
+    {
+        int base = size;
+
+        for (View root : roots)
+        {
+            push(root);
+        }
+
+        childrenStart = size;
+        return base;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the next view in a walk.
+     *
+     * @param base the marker returned when the walk was started
+     * @return the next view, or null if the walk is finished
+     */
+    public View next(int base)
+    {
+        if (size <= base)
+        {
+            return null;
+        }
+
+        View view = stack[--size];
+        stack[size] = null;
+        childrenStart = size;
+
+        if (view instanceof ViewGroup)
+        {
+            ViewGroup vg = (ViewGroup) view;
+
+            // Push the children backwards so that the first one is on top.
+            for (int i = vg.getChildCount() - 1; i >= 0; i--)
+            {
+                push(vg.getChildAt(i));
+            }
+        }
+
+        return view;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Skips the descendants of the view that was most recently returned by
+     * {@link #next(int)}. This must be called before {@code next} is called
+     * again or another walk is started.
+     */
+    public void skipChildren()
+    {
+        while (size > childrenStart)
+        {
+            stack[--size] = null;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Abandons a walk, discarding any views that it has not visited yet.
+     *
+     * @param base the marker returned when the walk was started
+     */
+    public void end(int base)
+    {
+        while (size > base)
+        {
+            stack[--size] = null;
+        }
+
+        childrenStart = size;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Pushes a view onto the stack, growing it if necessary.
+     *
+     * @param view the view to push
+     */
+    private void push(View view)
+    {
+        if (size == stack.length)
+        {
+            View[] newStack = new View[stack.length * 2];
+            System.arraycopy(stack, 0, newStack, 0, size);
+            stack = newStack;
+        }
+
+        stack[size++] = view;
+    }
+}
@@ -0,0 +1,281 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.android.internal;
+
+import android.app.Instrumentation;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+// -------------------------------------------------------------------------
+/**
+ * <p>
+ * Keeps track of each time the main thread of the application runs out of
+ * work and becomes idle, so that a test can wait for the application to
+ * settle after an interaction without always paying for a full
+ * {@link Instrumentation#waitForIdleSync()} round trip.
+ * </p><p>
+ * Every idle period starts a new "idle epoch". To wait for the effects of an
+ * interaction, a test records the {@link #currentEpoch() current epoch} once
+ * the interaction has been delivered and then calls
+ * {@link #awaitIdleSince(int)} with it. If the main thread has become idle
+ * since then, that call returns immediately; otherwise, it blocks until the
+ * next idle period.
+ * </p><p>
+ * The epoch must not be recorded before the interaction is delivered. The
+ * main thread can become idle between the two for reasons that have nothing
+ * to do with the interaction, and the wait would then return before the
+ * interaction had been handled at all, let alone the work it posts, such as
+ * the {@code PerformClick} that a view posts when it is tapped. The
+ * synchronous ways of delivering input, such as {@code sendPointerSync()},
+ * {@code sendKeySync()}, and the {@code TouchUtils} methods built on them,
+ * return only after the application has handled the input, so any work it
+ * posted is already queued when the epoch is recorded, and the main thread
+ * cannot become idle again until that work has run. An epoch recorded on
+ * the main thread itself, after the interaction has run there, is just as
+ * reliable.
+ * </p><p>
+ * The tracker also keeps simple statistics about the waits it has performed,
+ * so that they can be reported when tracing a slow test.
+ * </p>
+ *
+ * @author  Tony Allevato
+ * @author  Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class IdleTracker
+    implements MessageQueue.IdleHandler
+{
+    //~ Static/instance variables .............................................
+
+    // There is only one main looper per process, so there only needs to be
+    // one tracker.
+    private static IdleTracker instance;
+
+    private static final Runnable NOTHING = new Runnable() {
+        public void run()
+        {
+            // Only posted to wake up the main thread, so that it becomes idle
+            // again afterwards.
+        }
+    };
+
+    private Handler mainHandler;
+    private int epoch;
+
+    private int waitCount;
+    private int skippedWaitCount;
+    private long totalWaitTime;
+    private long lastWaitTime;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new {@code IdleTracker}. Use {@link #getInstance} instead.
+     */
+    private IdleTracker()
+    {
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the idle tracker for the main thread of the application, installing
+     * it the first time this method is called. This method must not be called
+     * on the main thread.
+     *
+     * @param instrumentation the instrumentation
+     * @return the idle tracker
+     */
+    public static synchronized IdleTracker getInstance(
+        Instrumentation instrumentation)
+    {
+        if (instance == null)
+        {
+            final IdleTracker tracker = new IdleTracker();
+
+            // Looper.myQueue() only returns the main thread's queue when it
+            // is called on the main thread.
+            instrumentation.runOnMainSync(new Runnable() {
+                public void run()
+                {
+                    Looper.myQueue().addIdleHandler(tracker);
+                }
+            });
+
+            instance = tracker;
+        }
+
+        return instance;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Called by the main thread's message queue each time it becomes idle.
+     *
+     * @return true, so that the tracker stays installed
+     */
+    public boolean queueIdle()
+    {
+        synchronized (this)
+        {
+            epoch++;
+            notifyAll();
+        }
+
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the current idle epoch, which increases by one each time the main
+     * thread becomes idle. This can be called on any thread.
+     *
+     * @return the current idle epoch
+     */
+    public synchronized int currentEpoch()
+    {
+        return epoch;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Waits until the main thread has become idle at least once since the
+     * specified epoch was recorded. If it already has, this method returns
+     * immediately. This method must not be called on the main thread.
+     *
+     * @param since an epoch returned by {@link #currentEpoch()} after the
+     *     interaction to wait for was delivered
+     */
+    public void awaitIdleSince(int since)
+    {
+        long start = System.nanoTime();
+        boolean waited = false;
+
+        synchronized (this)
+        {
+            if (epoch == since)
+            {
+                waited = true;
+
+                // The main thread only becomes idle after it has handled a
+                // message, so give it one in case it is idle already.
+                mainHandler.post(NOTHING);
+
+                try
+                {
+                    while (epoch == since)
+                    {
+                        wait();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            lastWaitTime = waited ? System.nanoTime() - start : 0;
+            totalWaitTime += lastWaitTime;
+            waitCount++;
+
+            if (!waited)
+            {
+                skippedWaitCount++;
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the number of times that {@link #awaitIdleSince(int)} has been
+     * called.
+     *
+     * @return the number of waits
+     */
+    public synchronized int getWaitCount()
+    {
+        return waitCount;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the number of times that {@link #awaitIdleSince(int)} returned
+     * immediately, because the main thread had already become idle.
+     *
+     * @return the number of waits that were skipped
+     */
+    public synchronized int getSkippedWaitCount()
+    {
+        return skippedWaitCount;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the total time spent blocked in {@link #awaitIdleSince(int)}.
+     *
+     * @return the total wait time, in nanoseconds
+     */
+    public synchronized long getTotalWaitTime()
+    {
+        return totalWaitTime;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the time spent blocked in the most recent call to
+     * {@link #awaitIdleSince(int)}.
+     *
+     * @return the most recent wait time, in nanoseconds
+     */
+    public synchronized long getLastWaitTime()
+    {
+        return lastWaitTime;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Returns a summary of the wait statistics, suitable for tracing.
+     *
+     * @return a summary of the wait statistics
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "IdleTracker[epoch " + epoch + ", " + waitCount + " waits ("
+            + skippedWaitCount + " skipped), "
+            + (totalWaitTime / 1000000) + " ms total]";
+    }
+}
@@ -0,0 +1,214 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.android.internal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// -------------------------------------------------------------------------
+/**
+ * <p>
+ * A two-way mapping between the names and the values of the resource IDs
+ * declared in an application's {@code R.id} class, so that IDs can be looked
+ * up by name, and names by ID, without reflecting over the class each time.
+ * </p><p>
+ * The mapping is built the first time it is requested for a particular
+ * {@code R.id} class and then shared by every test that uses that class.
+ * </p><p>
+ * IDs can be looked up by the name of any public static int field, including
+ * the non-final fields that are generated for library projects. Names are
+ * only looked up among the final fields, as they always have been.
+ * </p>
+ *
+ * @author  Tony Allevato
+ * @author  Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class ResourceIdNames
+{
+    //~ Static/instance variables .............................................
+
+    // Weak, so that the R.id classes of applications that are no longer
+    // being tested can be unloaded.
+    private static final Map<Class<?>, ResourceIdNames> cache =
+        new WeakHashMap<Class<?>, ResourceIdNames>();
+
+    private Map<String, Integer> idsByName;
+
+    // The names of the fields that are final, the only ones whose names are
+    // looked up by ID.
+    private Set<String> finalNames;
+
+    // An open-addressing hash table from ID to name, so that looking up a
+    // name does not box the ID. A slot is empty when its name is null.
+    private int[] ids;
+    private String[] names;
+    private int mask;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new mapping from the public static int fields of the
+     * specified class.
+     *
+     * @param idClass the {@code R.id} class
+     */
+    private ResourceIdNames(Class<?> idClass)
+    {
+        int modifiers = Modifier.PUBLIC | Modifier.STATIC;
+
+        // Linked, so that the fields are remembered in the order that
+        // getFields() returns them.
+        idsByName = new LinkedHashMap<String, Integer>();
+        finalNames = new HashSet<String>();
+
+        for (Field idField : idClass.getFields())
+        {
+            if (idField.getType().equals(int.class)
+                    && (idField.getModifiers() & modifiers) == modifiers)
+            {
+                try
+                {
+                    idsByName.put(idField.getName(), idField.getInt(null));
+
+                    if (Modifier.isFinal(idField.getModifiers()))
+                    {
+                        finalNames.add(idField.getName());
+                    }
+                }
+                catch (Exception e)
+                {
+                    // Do nothing.
+                }
+            }
+        }
+
+        // Keep the table at most half full.
+        int capacity = Integer.highestOneBit(
+            Math.max(4, idsByName.size() * 2 - 1)) << 1;
+        ids = new int[capacity];
+        names = new String[capacity];
+        mask = capacity - 1;
+
+        for (Map.Entry<String, Integer> entry : idsByName.entrySet())
+        {
+            if (!finalNames.contains(entry.getKey()))
+            {
+                continue;
+            }
+
+            int slot = slotFor(entry.getValue());
+
+            // If two fields share a value, keep the first one, as a linear
+            // search of the fields would.
+            if (names[slot] == null)
+            {
+                ids[slot] = entry.getValue();
+                names[slot] = entry.getKey();
+            }
+        }
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the mapping for the specified {@code R.id} class, building it if
+     * this is the first time it has been requested.
+     *
+     * @param idClass the {@code R.id} class
+     * @return the mapping for that class
+     */
+    public static ResourceIdNames forClass(Class<?> idClass)
+    {
+        synchronized (cache)
+        {
+            ResourceIdNames idNames = cache.get(idClass);
+
+            if (idNames == null)
+            {
+                idNames = new ResourceIdNames(idClass);
+                cache.put(idClass, idNames);
+            }
+
+            return idNames;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the value of the ID with the specified name.
+     *
+     * @param name the name of the ID field
+     * @return the value of the ID, or null if there is no ID with that name
+     */
+    public Integer idForName(String name)
+    {
+        return idsByName.get(name);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the name of the ID with the specified value.
+     *
+     * @param id the value of the ID
+     * @return the name of the ID field, or null if there is no ID with that
+     *     value
+     */
+    public String nameForId(int id)
+    {
+        return names[slotFor(id)];
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Finds the slot in the table that holds the specified ID, or the empty
+     * slot where it would be stored.
+     *
+     * @param id the ID
+     * @return the index of the slot
+     */
+    private int slotFor(int id)
+    {
+        // Resource IDs differ mostly in their low bits, but mix in the high
+        // ones anyway.
+        int slot = (id ^ (id >>> 16)) & mask;
+
+        while (names[slot] != null && ids[slot] != id)
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+}
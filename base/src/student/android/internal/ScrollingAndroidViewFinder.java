@@ -26,14 +26,14 @@ import android.view.View;
 import android.view.ViewGroup;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
 
 // -------------------------------------------------------------------------
 /**
  * <p>
- * A class that recursively finds the first view that matches a given criteria,
+ * A class that finds the first view that matches a given criteria,
  * scrolling if necessary whenever a scrollable view (such as a
- * {@link android.widget.ListView}) is encountered.
+ * {@link android.widget.ListView} or {@link android.widget.ScrollView}) is
+ * encountered.
  * </p><p>
  * Unlike {@link AndroidViewFinder}, which finds <b>all</b> views that satisfy
  * a particular criteria, this class only permits finding the first view that
@@ -52,6 +52,10 @@ public class ScrollingAndroidViewFinder
     private Instrumentation instrumentation;
     private List<View> roots;
 
+    // Shared by every level of the search, including the searches nested
+    // inside scrollable containers.
+    private AndroidViewTraversal traversal = new AndroidViewTraversal();
+
 
     //~ Constructors ..........................................................
 
@@ -99,11 +103,12 @@ public class ScrollingAndroidViewFinder
      */
     public View findFirst(AndroidViewFilter filter)
     {
+        AndroidViewQueryPlan plan = new AndroidViewQueryPlan(filter);
         View viewFound = null;
 
         for (View root : roots)
         {
-            viewFound = findFirstRecursively(filter, root);
+            viewFound = findFirst(plan, root);
 
             if (viewFound != null)
             {
@@ -117,50 +122,114 @@ public class ScrollingAndroidViewFinder
 
     // ----------------------------------------------------------
     /**
-     * A recursive helper method used to implement
-     * {@link #findFirst(AndroidViewFilter)}.
+     * Searches the hierarchy under a view for the first view that matches,
+     * handing the children of any scrollable container off to
+     * {@link #findFirstWhileScrolling(AndroidViewQueryPlan, ViewGroup)}.
      *
-     * @param filter the filter to match
-     * @param view the view being tested
+     * @param plan the plan for the filter to match
+     * @param root the view whose hierarchy is searched
+     * @return the first view that matches, or null if there is none
      */
-    private View findFirstRecursively(final AndroidViewFilter filter,
-                                      View view)
+    private View findFirst(AndroidViewQueryPlan plan, View root)
     {
-        if (filter.test(view))
+        int walk = traversal.begin(root);
+        View view;
+
+        while ((view = traversal.next(walk)) != null)
         {
-            return view;
+            if (plan.matches(view))
+            {
+                traversal.end(walk);
+                return view;
+            }
+
+            if (AndroidScroller.isScrollable(view))
+            {
+                traversal.skipChildren();
+
+                View viewFound =
+                    findFirstWhileScrolling(plan, (ViewGroup) view);
+
+                if (viewFound != null)
+                {
+                    traversal.end(walk);
+                    return viewFound;
+                }
+            }
         }
 
-        final View[] viewHolder = new View[1];
+        return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Searches the children of a scrollable container for the first view that
+     * matches. If the container always holds all of its content (such as a
+     * {@link android.widget.ScrollView}), the children are searched once and
+     * the container then jumps directly to the view that was found;
+     * otherwise, the container is scrolled forward a page at a time until the
+     * view is found or the end of the container is reached.
+     *
+     * @param plan the plan for the filter to match
+     * @param container the scrollable container
+     * @return the first view that matches, or null if there is none
+     */
+    private View findFirstWhileScrolling(
+        AndroidViewQueryPlan plan, ViewGroup container)
+    {
+        AndroidScroller scroller =
+            AndroidScroller.createScroller(container, instrumentation);
+
+        if (scroller.hasAllContent())
+        {
+            View viewFound = findFirstAmongChildren(plan, container);
+
+            if (viewFound != null)
+            {
+                scroller.scrollToView(viewFound);
+            }
+
+            return viewFound;
+        }
 
-        if (view instanceof ViewGroup)
+        do
         {
-            final ViewGroup vg = (ViewGroup) view;
+            View viewFound = findFirstAmongChildren(plan, container);
 
-            AndroidScroller scroller = AndroidScroller.createScroller(
-                view, instrumentation);
+            if (viewFound != null)
+            {
+                return viewFound;
+            }
+        }
+        while (scroller.scroll(scroller.getForwardDirection()));
 
-            scroller.doWhileScrolling(new Callable<Boolean>() {
-                public Boolean call() throws Exception
-                {
-                    for (int i = 0; i < vg.getChildCount(); i++)
-                    {
-                        View child = vg.getChildAt(i);
+        return null;
+    }
 
-                        viewHolder[0] =
-                            findFirstRecursively(filter, child);
 
-                        if (viewHolder[0] != null)
-                        {
-                            return true;
-                        }
-                    }
+    // ----------------------------------------------------------
+    /**
+     * Searches the hierarchies under the current children of a container for
+     * the first view that matches.
+     *
+     * @param plan the plan for the filter to match
+     * @param container the container
+     * @return the first view that matches, or null if there is none
+     */
+    private View findFirstAmongChildren(
+        AndroidViewQueryPlan plan, ViewGroup container)
+    {
+        for (int i = 0; i < container.getChildCount(); i++)
+        {
+            View viewFound = findFirst(plan, container.getChildAt(i));
 
-                    return false;
-                }
-            });
+            if (viewFound != null)
+            {
+                return viewFound;
+            }
         }
 
-        return viewHolder[0];
+        return null;
     }
 }
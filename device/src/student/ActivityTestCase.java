@@ -38,7 +38,6 @@ import android.view.View;
 import android.widget.AbsListView;
 import android.widget.EditText;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -46,9 +45,14 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import junit.framework.AssertionFailedError;
+import student.android.InteractionBatch;
 import student.android.MediaUtils;
+import student.android.internal.AdapterAndroidViewFinder;
 import student.android.internal.AndroidViewFilter;
 import student.android.internal.AndroidViewFinder;
+import student.android.internal.AndroidViewIndex;
+import student.android.internal.IdleTracker;
+import student.android.internal.ResourceIdNames;
 import student.android.internal.ScrollingAndroidViewFinder;
 import student.testingsupport.StringNormalizer;
 
@@ -134,6 +138,12 @@ public class ActivityTestCase<ActivityType extends Activity>
 
     private HashMap<ActivityMonitor, String> currentTestMonitors;
 
+    // The most recent snapshot of the view hierarchy, and the idle epoch of
+    // the main thread when it was taken; it is reused by lookups until the
+    // main thread has next become idle.
+    private AndroidViewIndex viewIndex;
+    private int viewIndexEpoch;
+
     // Used to remember state for the touchUp method.
     private View lastTouchView;
     private float lastTouchX;
@@ -188,6 +198,7 @@ public class ActivityTestCase<ActivityType extends Activity>
         predicateReturnsTrueReason = null;
         predicateReturnsFalseReason = null;
         lastTouchView = null;
+        viewIndex = null;
         currentTestMonitors = new HashMap<ActivityMonitor, String>();
 
         setActivityInitialTouchMode(true);
@@ -1251,7 +1262,7 @@ public class ActivityTestCase<ActivityType extends Activity>
     {
         View result = null;
 
-        List<View> views = getViewFinder().find(filter);
+        List<View> views = getViewFinder().find(filter, 1);
 
         if (views.size() == 0)
         {
@@ -1420,7 +1431,9 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     public View getView(AndroidViewFilter filter)
     {
-        List<View> views = getViewFinder().find(filter);
+        // Two matches are enough to know that the view is not unique; the
+        // full count is only needed for the failure message.
+        List<View> views = getViewFinder().find(filter, 2);
         View result = null;
 
         if (views.size() == 0)
@@ -1429,7 +1442,8 @@ public class ActivityTestCase<ActivityType extends Activity>
         }
         else if (views.size() > 1)
         {
-            fail("Found " + views.size() + " views matching: " + filter);
+            fail("Found " + getViewFinder().find(filter).size()
+                + " views matching: " + filter);
         }
         else
         {
@@ -1455,7 +1469,7 @@ public class ActivityTestCase<ActivityType extends Activity>
     {
         TouchUtils.clickView(this, view);
 
-        getInstrumentation().waitForIdleSync();
+        waitForIdleSince(getIdleTracker().currentEpoch());
     }
 
 
@@ -1479,10 +1493,9 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     public void click(View view, float x, float y)
     {
+        // touchUp already waits for the application to become idle.
         touchDown(view, x, y);
         touchUp();
-
-        getInstrumentation().waitForIdleSync();
     }
 
 
@@ -1535,7 +1548,7 @@ public class ActivityTestCase<ActivityType extends Activity>
         TouchUtils.drag(this, xStart + screenOffset[0], xEnd + screenOffset[0],
                 yStart + screenOffset[1], yEnd + screenOffset[1], steps);
 
-        getInstrumentation().waitForIdleSync();
+        waitForIdleSince(getIdleTracker().currentEpoch());
     }
 
 
@@ -1569,7 +1582,7 @@ public class ActivityTestCase<ActivityType extends Activity>
             getInstrumentation().sendStringSync(text);
         }
 
-        getInstrumentation().waitForIdleSync();
+        waitForIdleSince(getIdleTracker().currentEpoch());
     }
 
 
@@ -1581,14 +1594,22 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     public void focus(final View view)
     {
-        getActivity().runOnUiThread(new Runnable() {
+        final IdleTracker tracker = getIdleTracker();
+        final int[] epoch = new int[1];
+
+        getInstrumentation().runOnMainSync(new Runnable() {
             public void run()
             {
                 view.requestFocus();
+
+                // Recorded on the main thread, so that the idle period that
+                // follows the request is counted even if it starts before
+                // this test thread wakes up.
+                epoch[0] = tracker.currentEpoch();
             }
         });
 
-        getInstrumentation().waitForIdleSync();
+        waitForIdleSince(epoch[0]);
     }
 
 
@@ -1885,12 +1906,11 @@ public class ActivityTestCase<ActivityType extends Activity>
 
             AndroidViewFinder finder = new AndroidViewFinder(decorView);
 
-            List<View> listViews = finder.find(
+            listView = (AbsListView) finder.findFirst(
                 where.typeIs(AbsListView.class).and.visibilityIs(true));
 
-            if (listViews.size() > 0)
+            if (listView != null)
             {
-                listView = (AbsListView) listViews.get(0);
                 break;
             }
         }
@@ -1940,10 +1960,21 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     public void selectItemInList(AbsListView listView, AndroidViewFilter filter)
     {
-        ScrollingAndroidViewFinder finder =
-            new ScrollingAndroidViewFinder(getInstrumentation(), listView);
+        // Look for the item through the list's adapter first, which scrolls
+        // straight to it; only page through the list if that fails (for
+        // example, if the filter depends on where the item is on screen).
+        AdapterAndroidViewFinder adapterFinder =
+            new AdapterAndroidViewFinder(getInstrumentation(), listView);
 
-        View toSelect = finder.findFirst(filter);
+        View toSelect = adapterFinder.findFirst(filter);
+
+        if (toSelect == null)
+        {
+            ScrollingAndroidViewFinder finder =
+                new ScrollingAndroidViewFinder(getInstrumentation(), listView);
+
+            toSelect = finder.findFirst(filter);
+        }
 
         assertNotNull("Cannot find item in ListView matching: " + filter,
             toSelect);
@@ -2022,7 +2053,7 @@ public class ActivityTestCase<ActivityType extends Activity>
                 view, MotionEvent.ACTION_DOWN, x, y);
 
         getInstrumentation().sendPointerSync(event);
-        getInstrumentation().waitForIdleSync();
+        waitForIdleSince(getIdleTracker().currentEpoch());
     }
 
 
@@ -2049,7 +2080,7 @@ public class ActivityTestCase<ActivityType extends Activity>
                 lastTouchView, MotionEvent.ACTION_MOVE, x, y);
 
         getInstrumentation().sendPointerSync(event);
-        getInstrumentation().waitForIdleSync();
+        waitForIdleSince(getIdleTracker().currentEpoch());
     }
 
 
@@ -2067,14 +2098,74 @@ public class ActivityTestCase<ActivityType extends Activity>
                 lastTouchView, MotionEvent.ACTION_UP, lastTouchX, lastTouchY);
 
         getInstrumentation().sendPointerSync(event);
-        getInstrumentation().waitForIdleSync();
+        waitForIdleSince(getIdleTracker().currentEpoch());
 
         lastTouchView = null;
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * <p>
+     * Starts a batch of interactions that will all be performed at once,
+     * waiting for the application to become idle only after the last one
+     * instead of after each. This makes tests that perform many interactions
+     * in a row, such as filling out a form, run much faster:
+     * </p>
+     * <pre>
+     * batch().enterText(nameField, "Alice")
+     *        .enterText(ageField, "20")
+     *        .click(okButton)
+     *        .run();
+     * </pre>
+     * <p>
+     * See {@link InteractionBatch} for the ways in which batched interactions
+     * differ from the individual methods in this class.
+     * </p>
+     *
+     * @return a new, empty batch
+     */
+    public InteractionBatch batch()
+    {
+        return new InteractionBatch(getInstrumentation());
+    }
+
+
     //~ Protected Methods .....................................................
 
+    // ----------------------------------------------------------
+    /**
+     * Gets the {@link IdleTracker} that keeps track of when the main thread
+     * of the application becomes idle. Its statistics can be used to see how
+     * much time a test spends waiting for the application to settle after
+     * each interaction.
+     *
+     * @return the idle tracker
+     */
+    protected IdleTracker getIdleTracker()
+    {
+        return IdleTracker.getInstance(getInstrumentation());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Waits until the main thread of the application has become idle since
+     * the specified idle epoch, which should be recorded once an interaction
+     * has been delivered: that is, after {@code sendPointerSync()},
+     * {@code sendKeySync()}, or the {@code TouchUtils} method that delivers
+     * it has returned, so that whatever work the application posted while
+     * handling it is already queued. If the main thread has become idle
+     * since then, this returns immediately.
+     *
+     * @param epoch the idle epoch recorded after the interaction
+     */
+    protected void waitForIdleSince(int epoch)
+    {
+        getIdleTracker().awaitIdleSince(epoch);
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Gets the {@link AndroidViewFinder} that can be used to traverse the view
@@ -2084,7 +2175,42 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     protected AndroidViewFinder getViewFinder()
     {
-        return new AndroidViewFinder(getAllDecorViews());
+        return new AndroidViewFinder(getViewIndex());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets a snapshot of the view hierarchy of the activity, reusing the
+     * previous one if the main thread has not become idle since it was
+     * taken. Views are only changed on the main thread, which becomes idle
+     * again once it has handled whatever changed them, so a new snapshot is
+     * taken after every interaction and after any other work that the
+     * application does on the main thread, such as handling the result of
+     * a background task. Only a lookup that runs while the main thread is
+     * in the middle of changing the views can see the snapshot from before
+     * the change, and reading the views at that moment is unreliable
+     * anyway.
+     *
+     * @return the {@link AndroidViewIndex} to search
+     */
+    protected AndroidViewIndex getViewIndex()
+    {
+        // Read before the snapshot is taken, so that if the main thread
+        // becomes idle while it is being taken, the next lookup takes
+        // another.
+        int epoch = getIdleTracker().currentEpoch();
+        List<View> roots = getAllDecorViews();
+
+        if (viewIndex == null
+            || epoch != viewIndexEpoch
+            || !viewIndex.isCurrentFor(roots))
+        {
+            viewIndex = new AndroidViewIndex(roots);
+            viewIndexEpoch = epoch;
+        }
+
+        return viewIndex;
     }
 
 
@@ -2163,18 +2289,15 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     public int getIdByName(String fieldName)
     {
-        // TODO Replace this with new reflection introspection code instead.
+        Integer id = ResourceIdNames.forClass(idClass()).idForName(fieldName);
 
-        try
-        {
-            Field idField = idClass().getField(fieldName);
-            return idField.getInt(null);
-        }
-        catch (Exception e)
+        if (id == null)
         {
             fail("Cannot find a resource ID with name \"" + fieldName + "\"");
             return 0;
         }
+
+        return id;
     }
 
 
@@ -2190,37 +2313,15 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     private String getFieldNameForId(int id)
     {
-        // TODO Replace this with new reflection introspection code instead.
-
-        Field[] idFields = idClass().getFields();
+        String name = ResourceIdNames.forClass(idClass()).nameForId(id);
 
-        for (Field idField : idFields)
+        if (name == null)
         {
-            int modifiers = Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL;
-
-            if (idField.getType().equals(int.class)
-                    && (idField.getModifiers() & modifiers) == modifiers)
-            {
-                try
-                {
-                    int value = idField.getInt(null);
-
-                    if (value == id)
-                    {
-                        return idField.getName();
-                    }
-                }
-                catch (Exception e)
-                {
-                    // Do nothing.
-                }
-            }
+            fail("Cannot find an id in the R.id class with value 0x"
+                    + Integer.toString(id, 16));
         }
 
-        fail("Cannot find an id in the R.id class with value 0x"
-                + Integer.toString(id, 16));
-
-        return null;
+        return name;
     }
 
 
@@ -0,0 +1,363 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.android;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.EditText;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import student.android.internal.IdleTracker;
+
+// -------------------------------------------------------------------------
+/**
+ * <p>
+ * A sequence of interactions with the views of an activity (clicks, text
+ * entry, touches, and so on) that are all performed at once. Performing
+ * each interaction separately, through the methods of
+ * {@link student.ActivityTestCase}, waits for the application to become idle
+ * after every one of them; a batch performs all of its interactions in a
+ * single pass on the UI thread and then waits only once, which is much
+ * faster when a test needs to do several things in a row, such as filling
+ * out a form.
+ * </p><p>
+ * Batches are obtained from {@link student.ActivityTestCase#batch()}. Each
+ * method adds an interaction to the batch and returns the batch itself, so
+ * that calls can be chained, and nothing happens until {@link #run()} is
+ * called:
+ * </p>
+ * <pre>
+ * batch().enterText(nameField, "Alice")
+ *        .enterText(ageField, "20")
+ *        .click(okButton)
+ *        .run();
+ * </pre>
+ * <p>
+ * Since everything in a batch happens during one pass on the UI thread,
+ * interactions are delivered directly to the views rather than injected as
+ * if they came from the user. Clicks call {@link View#performClick()}, text
+ * is set with {@link EditText#setText(CharSequence)} rather than typed one
+ * key at a time, and touches are dispatched to the window that contains the
+ * view. Use the individual methods of {@code ActivityTestCase} instead if a
+ * test depends on key events.
+ * </p>
+ *
+ * @author  Tony Allevato
+ * @author  Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class InteractionBatch
+{
+    //~ Static/instance variables .............................................
+
+    private Instrumentation instrumentation;
+    private List<Runnable> interactions;
+
+    // The touch in progress as the batch is being built, so that touchMove
+    // and touchUp know which view they belong to.
+    private View lastTouchView;
+    private float lastTouchX;
+    private float lastTouchY;
+    private long touchDownTime;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new, empty {@code InteractionBatch}.
+     *
+     * @param instrumentation the instrumentation used to run the batch
+     */
+    public InteractionBatch(Instrumentation instrumentation)
+    {
+        this.instrumentation = instrumentation;
+        this.interactions = new ArrayList<Runnable>();
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Adds a click on the specified view to the batch.
+     *
+     * @param view the view to click
+     * @return this batch, for chaining
+     */
+    public InteractionBatch click(final View view)
+    {
+        interactions.add(new Runnable() {
+            public void run()
+            {
+                view.performClick();
+            }
+        });
+
+        return this;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds a click at the specified location in a view to the batch. This is
+     * identical to calling {@link #touchDown(View,float,float)} immediately
+     * followed by {@link #touchUp()}.
+     *
+     * @param view the view to click
+     * @param x the x-coordinate to click, relative to the view
+     * @param y the y-coordinate to click, relative to the view
+     * @return this batch, for chaining
+     */
+    public InteractionBatch click(View view, float x, float y)
+    {
+        return touchDown(view, x, y).touchUp();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds a one-finger drag from one point in the view to another to the
+     * batch, with a number of intermediate motion events between the start
+     * and end points.
+     *
+     * @param view the view to drag in
+     * @param xStart the x-coordinate of the start of the drag
+     * @param yStart the y-coordinate of the start of the drag
+     * @param xEnd the x-coordinate of the end of the drag
+     * @param yEnd the y-coordinate of the end of the drag
+     * @param steps the number of intermediate motion events to generate,
+     *     including the final one that represents lifting the finger
+     * @return this batch, for chaining
+     */
+    public InteractionBatch drag(View view, float xStart, float yStart,
+                                 float xEnd, float yEnd, int steps)
+    {
+        touchDown(view, xStart, yStart);
+
+        for (int i = 1; i <= steps; i++)
+        {
+            float fraction = (float) i / steps;
+
+            touchMove(xStart + (xEnd - xStart) * fraction,
+                yStart + (yEnd - yStart) * fraction);
+        }
+
+        return touchUp();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds replacing the text in the specified view to the batch. The view
+     * is given the focus first, and the cursor is left at the end of the new
+     * text. If the empty string or {@code null} is given, then the existing
+     * text is simply removed.
+     *
+     * @param view the view to enter text on
+     * @param text the text to enter on the view
+     * @return this batch, for chaining
+     */
+    public InteractionBatch enterText(final EditText view, String text)
+    {
+        final String newText = (text == null) ? "" : text;
+
+        interactions.add(new Runnable() {
+            public void run()
+            {
+                view.requestFocus();
+                view.setText(newText);
+                view.setSelection(view.getText().length());
+            }
+        });
+
+        return this;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds giving the focus to a specific view to the batch.
+     *
+     * @param view the view to receive focus
+     * @return this batch, for chaining
+     */
+    public InteractionBatch focus(final View view)
+    {
+        interactions.add(new Runnable() {
+            public void run()
+            {
+                view.requestFocus();
+            }
+        });
+
+        return this;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds pressing a finger down on the specified view to the batch. The
+     * touch must be ended by {@link #touchUp()} in the same batch.
+     *
+     * @param view the view to touch
+     * @param x the x-coordinate of the touch, relative to the origin of the
+     *     view
+     * @param y the y-coordinate of the touch, relative to the origin of the
+     *     view
+     * @return this batch, for chaining
+     */
+    public InteractionBatch touchDown(View view, float x, float y)
+    {
+        Assert.assertNull("touchDown should only be called if a previous "
+            + "touch was ended by calling touchUp.", lastTouchView);
+
+        lastTouchView = view;
+        lastTouchX = x;
+        lastTouchY = y;
+
+        addTouch(view, MotionEvent.ACTION_DOWN, x, y);
+        return this;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds moving the finger to the specified coordinates, relative to the
+     * origin of the view touched by the last call to
+     * {@link #touchDown(View,float,float)}, to the batch.
+     *
+     * @param x the x-coordinate of the touch, relative to the origin of the
+     *     view
+     * @param y the y-coordinate of the touch, relative to the origin of the
+     *     view
+     * @return this batch, for chaining
+     */
+    public InteractionBatch touchMove(float x, float y)
+    {
+        Assert.assertNotNull("touchMove should only be called between "
+            + "touchDown and touchUp.", lastTouchView);
+
+        lastTouchX = x;
+        lastTouchY = y;
+
+        addTouch(lastTouchView, MotionEvent.ACTION_MOVE, x, y);
+        return this;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds lifting the finger up from the screen at the end of a touch to
+     * the batch.
+     *
+     * @return this batch, for chaining
+     */
+    public InteractionBatch touchUp()
+    {
+        Assert.assertNotNull("touchUp should only be called after touchDown.",
+            lastTouchView);
+
+        addTouch(lastTouchView, MotionEvent.ACTION_UP, lastTouchX, lastTouchY);
+        lastTouchView = null;
+        return this;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Performs all of the interactions in the batch, in the order they were
+     * added, and then waits for the application to become idle. The batch is
+     * empty afterwards, so it can be reused.
+     */
+    public void run()
+    {
+        Assert.assertNull("A batch that calls touchDown must also call "
+            + "touchUp.", lastTouchView);
+
+        final Runnable[] pending =
+            interactions.toArray(new Runnable[interactions.size()]);
+        interactions.clear();
+
+        if (pending.length == 0)
+        {
+            return;
+        }
+
+        final IdleTracker tracker = IdleTracker.getInstance(instrumentation);
+        final int[] epoch = new int[1];
+
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run()
+            {
+                for (Runnable interaction : pending)
+                {
+                    interaction.run();
+                }
+
+                epoch[0] = tracker.currentEpoch();
+            }
+        });
+
+        tracker.awaitIdleSince(epoch[0]);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds a touch event on a view to the batch. The location of the view is
+     * computed when the event is dispatched, since earlier interactions in
+     * the same batch may move it.
+     *
+     * @param view the view associated with the touch event
+     * @param action the action (one of the MotionEvent.ACTION_* constants)
+     * @param x the x-coordinate of the event, relative to the view
+     * @param y the y-coordinate of the event, relative to the view
+     */
+    private void addTouch(final View view, final int action,
+                          final float x, final float y)
+    {
+        interactions.add(new Runnable() {
+            public void run()
+            {
+                long uptime = SystemClock.uptimeMillis();
+
+                if (action == MotionEvent.ACTION_DOWN)
+                {
+                    touchDownTime = uptime;
+                }
+
+                int[] windowOffset = new int[2];
+                view.getLocationInWindow(windowOffset);
+
+                MotionEvent event = MotionEvent.obtain(touchDownTime, uptime,
+                    action, x + windowOffset[0], y + windowOffset[1], 0);
+
+                view.getRootView().dispatchTouchEvent(event);
+                event.recycle();
+            }
+        });
+    }
+}
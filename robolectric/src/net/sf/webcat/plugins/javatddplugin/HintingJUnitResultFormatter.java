@@ -25,6 +25,8 @@
 
 package net.sf.webcat.plugins.javatddplugin;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 import junit.framework.Test;
 import org.apache.tools.ant.taskdefs.optional.junit.*;
@@ -65,6 +67,7 @@ public class HintingJUnitResultFormatter
     {
         super.startTestSuite( suite );
         suiteOptions = null;
+        stackFilters.clear();
         if ( output != null )
         {
             synchronized ( output )
@@ -217,8 +220,7 @@ public class HintingJUnitResultFormatter
             //     Method "fName" should be public
             if ( result.code == 13 && result.message != null )
             {
-                if ( result.message.matches(
-                         "Method .* (not found|should be public)" ) )
+                if ( MISSING_METHOD_RE.matcher( result.message ).matches() )
                 {
                     mandatory = 2;
                     hint = result.message;
@@ -234,13 +236,11 @@ public class HintingJUnitResultFormatter
             // Look for explicit hint first
             if ( hint == null
                  && result.message != null
-                 && !Pattern.compile("In file .*( which reads|on this line):")
-                     .matcher(result.message).find()
+                 && !SOURCE_LOCATION_RE.matcher( result.message ).find()
                  /* && result.message.matches( HINT_MARKER_PLUS_ALL_RE )*/ )
             {
-                hint = result.message.replaceFirst( HINT_MARKER_RE, "" );
-                hint = result.message.replaceFirst(
-                    "^java.lang.AssertionError:", "assertion failed:" );
+                hint = ASSERTION_ERROR_RE.matcher( result.message )
+                    .replaceFirst( "assertion failed:" );
 
                 // remove trailing "expected" fragments
 //                output.write(
@@ -302,6 +302,7 @@ public class HintingJUnitResultFormatter
             }
 
             // Replace message content
+            result.hint = hint;
             if ( hint != null )
             {
                 result.message = hint;
@@ -315,7 +316,9 @@ public class HintingJUnitResultFormatter
                     outBuffer.append( "$results->addHint( " );
                     outBuffer.append( mandatory );
                     outBuffer.append( ", " );
-                    outBuffer.append( perlStringLiteral( hint ) );
+                    outBuffer.append( '\'' );
+                    TextEscaper.PERL_SINGLE_QUOTED.escape( hint, outBuffer );
+                    outBuffer.append( '\'' );
                     if ( traceMsg == null )
                     {
                         outBuffer.append( ", undef );" );
@@ -324,7 +327,8 @@ public class HintingJUnitResultFormatter
                     {
                         outBuffer.append( ", <<TRACE );" );
                         outBuffer.append( StringUtils.LINE_SEP );
-                        outBuffer.append( perlEscape( traceMsg ) );
+                        TextEscaper.PERL_INTERPOLATED.escape(
+                            traceMsg, outBuffer );
                         outBuffer.append( "TRACE" );
                     }
                     outBuffer.append( StringUtils.LINE_SEP );
@@ -402,7 +406,35 @@ public class HintingJUnitResultFormatter
 
     // ----------------------------------------------------------
     /**
-     * Check a stack trace element against a list of filters.
+     * Get the compiled stack trace filter for a list of filters.  Each
+     * list is compiled once per suite.  Lists are told apart by identity,
+     * not by their contents, so that finding the compiled filter does not
+     * depend on the length of the list.  The default filters and those in
+     * the suite options are the same arrays every time they are used, while
+     * those read from a test method's own annotation are compiled again for
+     * each test that reports a stack trace.
+     * @param filters classes (or class prefixes) to hide
+     * @return the compiled filter
+     */
+    private StackTraceFilter stackFilterFor( String[] filters )
+    {
+        StackTraceFilter filter = stackFilters.get( filters );
+        if ( filter == null )
+        {
+            filter = new StackTraceFilter( filters );
+            stackFilters.put( filters, filter );
+        }
+        return filter;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Check a stack trace element against a list of filters.  The list is
+     * compiled into a {@link StackTraceFilter} the first time it is seen
+     * in a suite, so after that, the check takes time proportional to the
+     * length of the frame's class name, plus a constant-time lookup of the
+     * compiled filter.
      * @param frame the stack trace element to match against
      * @param filters a list of class prefixes to check for
      * @return true if the frame matches any filter in the list
@@ -410,15 +442,7 @@ public class HintingJUnitResultFormatter
     protected boolean matches( StackTraceElement frame, String[] filters )
     {
         if ( filters == null || filters.length == 0 ) return false;
-        String frameClass = frame.getClassName();
-        for ( String filter : filters )
-        {
-            if ( frameClass.startsWith( filter ) )
-            {
-                return true;
-            }
-        }
-        return false;
+        return stackFilterFor( filters ).matches( frame );
     }
 
 
@@ -528,7 +552,18 @@ public class HintingJUnitResultFormatter
 
     //~ Instance/static variables .............................................
 
-    private static final String HINT_MARKER_RE = "^(?i)hint:\\s*";
+    private static final Pattern MISSING_METHOD_RE =
+        Pattern.compile( "Method .* (not found|should be public)" );
+
+    private static final Pattern SOURCE_LOCATION_RE =
+        Pattern.compile( "In file .*( which reads|on this line):" );
+
+    private static final Pattern ASSERTION_ERROR_RE =
+        Pattern.compile( "^java.lang.AssertionError:" );
+
+    /** The compiled stack trace filters for the current suite. */
+    private Map<String[], StackTraceFilter> stackFilters =
+        new IdentityHashMap<String[], StackTraceFilter>();
 
     private static final String[] defaultStackFilters = {
         // JUnit 4 support:
@@ -0,0 +1,221 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of Web-CAT.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License
+ |  along with Web-CAT; if not, write to the Free Software
+ |  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ |
+ |  Project manager: Stephen Edwards <edwards@cs.vt.edu>
+ |  Virginia Tech CS Dept, 660 McBryde Hall (0106), Blacksburg, VA 24061 USA
+\*==========================================================================*/
+
+package net.sf.webcat.plugins.javatddplugin;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
+import org.apache.tools.ant.util.FileUtils;
+
+//-------------------------------------------------------------------------
+/**
+ *  A custom formatter for the ANT junit task that writes the same results
+ *  as {@link HintingJUnitResultFormatter}, but as newline-delimited JSON
+ *  rather than Perl source, so that they can be read a line at a time
+ *  without a Perl interpreter.
+ *  <p>
+ *  Each test that passes or fails produces one line:
+ *  </p>
+ *  <pre>
+ *  {"type":"test","suite":"...","test":"...","level":2,"code":3,
+ *   "weight":1.0,"message":"...","hint":"..."}
+ *  </pre>
+ *  <p>
+ *  with a null message or hint if there is none.  Each suite then ends
+ *  with a line giving the total weight of the tests executed and failed:
+ *  </p>
+ *  <pre>
+ *  {"type":"suite","suite":"...","executed":10.0,"failed":2.0}
+ *  </pre>
+ *  <p>
+ *  Each line is written as soon as it is complete.  The output is UTF-8.
+ *  </p>
+ *
+ *  @author Stephen Edwards
+ *  @author Last changed by $Author$
+ *  @version $Revision$, $Date$
+ */
+public class JsonJUnitResultFormatter
+    extends HintingJUnitResultFormatter
+{
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Default constructor.
+     */
+    public JsonJUnitResultFormatter()
+    {
+        // Nothing to construct
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Set the output stream.  The inherited Perl output is left unset,
+     * so that the parent classes write none of it.
+     * @param out the stream to write the records to
+     */
+    public void setOutput( OutputStream out )
+    {
+        this.out = out;
+        try
+        {
+            json = new PrintWriter( new OutputStreamWriter( out, "UTF-8" ) );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            // Every JVM supports UTF-8
+            throw new BuildException( e );
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * @see JUnitResultFormatter#endTestSuite(JUnitTest)
+     */
+    /** {@inheritDoc}. */
+    public void endTestSuite( JUnitTest suite )
+    {
+        if ( json == null ) return;
+        try
+        {
+            record.append( "{\"type\":\"suite\",\"suite\":" );
+            appendString( suite.getName() );
+            record.append( ",\"executed\":" );
+            record.append( numExecuted() );
+            record.append( ",\"failed\":" );
+            record.append( numFailed() );
+            record.append( "}" );
+            writeRecord();
+        }
+        finally
+        {
+            if ( out != System.out  &&  out != System.err )
+            {
+                FileUtils.close( out );
+            }
+        }
+    }
+
+
+    //~ Protected Methods .....................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Write out a JSON record for a test result, in place of the plist
+     * dictionary written by the parent class.
+     * @param result the test result
+     */
+    protected void formatTestResultAsPlist( TestResultDescriptor result )
+    {
+        if ( json == null ) return;
+        String testName = null;
+        if ( result.test != null )
+        {
+            testName = result.test.toString();
+            int pos = testName.indexOf( "(" );
+            if ( pos >= 0 )
+            {
+                testName = testName.substring( 0, pos );
+            }
+        }
+
+        record.append( "{\"type\":\"test\",\"suite\":" );
+        appendString( result.suite.getName() );
+        record.append( ",\"test\":" );
+        appendString( testName );
+        record.append( ",\"level\":" );
+        record.append( result.level );
+        record.append( ",\"code\":" );
+        record.append( result.code );
+        record.append( ",\"weight\":" );
+        record.append( result.weight );
+        record.append( ",\"message\":" );
+        appendString( result.message );
+        record.append( ",\"hint\":" );
+        appendString( result.hint );
+        record.append( "}" );
+        writeRecord();
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Append a JSON string value to the current record.
+     * @param text the string, or null
+     */
+    private void appendString( String text )
+    {
+        if ( text == null )
+        {
+            record.append( "null" );
+        }
+        else
+        {
+            record.append( '"' );
+            TextEscaper.JSON_STRING.escape( text, record );
+            record.append( '"' );
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Write out the current record as a line of its own, and clear it.
+     */
+    private void writeRecord()
+    {
+        synchronized ( json )
+        {
+            record.append( '\n' );
+            json.write( record.toString() );
+            record.setLength( 0 );
+            json.flush();
+            if ( json.checkError() )
+            {
+                throw new BuildException( "Unable to write output" );
+            }
+        }
+    }
+
+
+    //~ Instance/static variables .............................................
+
+    /** Used for writing the records. */
+    private PrintWriter json;
+
+    /** The record currently being formatted. */
+    private StringBuffer record = new StringBuffer();
+}
@@ -206,6 +206,30 @@ public class PerlScoringJUnitResultFormatter
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Get the total scoring weight of the tests executed so far in the
+     * current suite.
+     * @return the weight of the tests executed
+     */
+    protected double numExecuted()
+    {
+        return numExecuted;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Get the total scoring weight of the tests that have failed so far in
+     * the current suite.
+     * @return the weight of the tests failed
+     */
+    protected double numFailed()
+    {
+        return numFailed;
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Format and print out results for this test suite.  This is an
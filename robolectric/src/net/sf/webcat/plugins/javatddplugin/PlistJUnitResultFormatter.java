@@ -25,6 +25,9 @@
 
 package net.sf.webcat.plugins.javatddplugin;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 import junit.framework.AssertionFailedError;
 import junit.framework.Test;
 import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
@@ -135,11 +138,7 @@ public class PlistJUnitResultFormatter
      */
     public String perlEscape( String text )
     {
-        if ( text == null )
-        {
-            return null;
-        }
-        return text.replaceAll( "([@$%#\"\\\\])", "\\\\$1" );
+        return TextEscaper.PERL_INTERPOLATED.escape( text );
     }
 
 
@@ -155,7 +154,7 @@ public class PlistJUnitResultFormatter
         {
             return "''";
         }
-        return "'" + text.replaceAll( "'", "\\\\'" ) + "'";
+        return "'" + TextEscaper.PERL_SINGLE_QUOTED.escape( text ) + "'";
     }
 
 
@@ -176,6 +175,10 @@ public class PlistJUnitResultFormatter
         public int       level;
         /** A message associated with the exception object, if any. */
         public String    message;
+        /** The hint generated for a failure, if any. */
+        public String    hint;
+        /** The scoring weight of the test. */
+        public double    weight = 1.0;
 
         /**
          * Create a new descriptor.
@@ -228,7 +231,6 @@ public class PlistJUnitResultFormatter
             msg = error.getMessage();
             if ( msg != null )
             {
-                msg = msg.replaceAll( "\"", "\\\"" );
                 if ( level > 2 )
                 {
                     msg = error.getClass().getName() + ": " + msg;
@@ -247,8 +249,10 @@ public class PlistJUnitResultFormatter
             }
         }
 
-        return new TestResultDescriptor(
+        TestResultDescriptor result = new TestResultDescriptor(
             currentSuite, test, error, code, level, msg );
+        result.weight = scoringWeightOf( test );
+        return result;
     }
 
 
@@ -271,13 +275,17 @@ public class PlistJUnitResultFormatter
      */
     protected void formatTestResultAsPlist( TestResultDescriptor result )
     {
-        testResultsPlist.append( "{" );
-        if (debugFormat) testResultsPlist.append( "\n\t" );
-        testResultsPlist.append( "suite=\"" );
-        testResultsPlist.append( result.suite.getName() );
-        testResultsPlist.append( "\";" );
-        if (debugFormat) testResultsPlist.append( "\n\t" );
-        testResultsPlist.append( "test=\"" );
+        // Each record is escaped for Perl as it is appended, and the records
+        // are written out a chunk at a time, so that a large suite is never
+        // held in memory all at once.
+        StringBuffer plist = testResultsPlist;
+        appendToPlist( "{" );
+        if (debugFormat) plist.append( "\n\t" );
+        appendToPlist( "suite=\"" );
+        appendToPlist( result.suite.getName() );
+        appendToPlist( "\";" );
+        if (debugFormat) plist.append( "\n\t" );
+        appendToPlist( "test=\"" );
         String testName = "";
         if ( result.test != null )
         {
@@ -288,26 +296,70 @@ public class PlistJUnitResultFormatter
                 testName = testName.substring( 0, pos );
             }
         }
-        testResultsPlist.append( testName );
-        testResultsPlist.append( "\";" );
-        if (debugFormat) testResultsPlist.append( "\n\t" );
-        testResultsPlist.append( "level=" );
-        testResultsPlist.append( result.level );
-        testResultsPlist.append( ";" );
-        if (debugFormat) testResultsPlist.append( "\n\t" );
-        testResultsPlist.append( "code=" );
-        testResultsPlist.append( result.code );
-        testResultsPlist.append( ";" );
+        appendToPlist( testName );
+        appendToPlist( "\";" );
+        if (debugFormat) plist.append( "\n\t" );
+        appendToPlist( "level=" );
+        plist.append( result.level );
+        appendToPlist( ";" );
+        if (debugFormat) plist.append( "\n\t" );
+        appendToPlist( "code=" );
+        plist.append( result.code );
+        appendToPlist( ";" );
         if ( result.message != null )
         {
-            if (debugFormat) testResultsPlist.append( "\n\t" );
-            testResultsPlist.append( "message=\"" );
-            testResultsPlist.append( result.message.replace("\"", "\\\\\"") );
-            testResultsPlist.append( "\";" );
+            if (debugFormat) plist.append( "\n\t" );
+            appendToPlist( "message=\"" );
+            PLIST_MESSAGE.escape( result.message, plist );
+            appendToPlist( "\";" );
+        }
+        if (debugFormat) plist.append( "\n" );
+        appendToPlist( "}," );
+        if (debugFormat) plist.append( "\n" );
+
+        if ( plist.length() >= PLIST_CHUNK_SIZE )
+        {
+            flushTestResultsPlist();
         }
-        if (debugFormat) testResultsPlist.append( "\n" );
-        testResultsPlist.append( "}," );
-        if (debugFormat) testResultsPlist.append( "\n" );
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Escape text for Perl and append it to the current plist chunk.
+     * @param text the text to append
+     */
+    private void appendToPlist( String text )
+    {
+        TextEscaper.PERL_INTERPOLATED.escape( text, testResultsPlist );
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Write out the test results that have been formatted so far as a
+     * complete plist chunk, and clear them.  The last chunk for a suite
+     * is instead written by {@link #outputForSuite(StringBuffer,JUnitTest)}.
+     */
+    protected void flushTestResultsPlist()
+    {
+        if ( output != null )
+        {
+            synchronized ( output )
+            {
+                output.write( "# Suite: " );
+                output.write( currentSuite.getName() );
+                output.write( StringUtils.LINE_SEP );
+                output.write( "$results->addToPlist( <<PLIST );" );
+                output.write( StringUtils.LINE_SEP );
+                output.write( testResultsPlist.toString() );
+                output.write( StringUtils.LINE_SEP );
+                output.write( "PLIST" );
+                output.write( StringUtils.LINE_SEP );
+                output.flush();
+            }
+        }
+        testResultsPlist.setLength( 0 );
     }
 
 
@@ -324,7 +376,7 @@ public class PlistJUnitResultFormatter
         buffer.append( StringUtils.LINE_SEP );
         buffer.append( "$results->addToPlist( <<PLIST );");
         buffer.append( StringUtils.LINE_SEP );
-        buffer.append( perlEscape( testResultsPlist.toString() ) );
+        buffer.append( testResultsPlist );
         buffer.append( StringUtils.LINE_SEP );
         buffer.append( "PLIST");
         buffer.append( StringUtils.LINE_SEP );
@@ -343,20 +395,7 @@ public class PlistJUnitResultFormatter
         if ( error == null ) return 1;
 
         // First-pass code assignment is made by the code table
-        int code = 0;
-        for ( int i = 0; i < codeTable.length; i++ )
-        {
-            if ( codeTable[i] != null )
-            {
-                if (codeTable[i].isAssignableFrom(error.getClass())
-                    || codeTable[i].getName().equals(error.getClass().getName()))
-                {
-                    // error instanceof codeTable[i]
-                    code = i;
-                    break;
-                }
-            }
-        }
+        int code = tableCodeOf( error.getClass() );
 
         // If it is a test case failure, we cannot use the exception type
         // alone, so we must break down the message to refine the code
@@ -371,76 +410,129 @@ public class PlistJUnitResultFormatter
             {
                 code = 2;
             }
+            else if ( error.getCause() == null )
+            {
+                // Then it is a 3.x-style error
+                code = assertionCodeOf( error.getStackTrace(),
+                    "junit.framework.Assert", "student.TestCase" );
+            }
             else
             {
-                code = 13;
-                StackTraceElement[] trace = null;
-                String methodName = null;
-                int pos = 0;
-                if ( error.getCause() == null )
-                {
-                    // Then it is a 3.x-style error
-                    trace = error.getStackTrace();
-                    pos = findLast( trace, 0, "junit.framework.Assert" );
-                    if ( pos < trace.length
-                         && trace[pos].getClassName().equals(
-                             "junit.framework.Assert" ) )
-                    {
-                        methodName = trace[pos].getMethodName();
-                    }
-                    else
-                    {
-                        pos = findLast( trace, 0, "student.TestCase" );
-                        if ( pos < trace.length
-                             && trace[pos].getClassName().equals(
-                                 "student.TestCase" ) )
-                        {
-                            methodName = trace[pos].getMethodName();
-                        }
-                    }
-                }
-                else
-                {
-                    // Then it is a 4.x-style error, wrapped by the ANT
-                    // JUnit test adapter
-                    trace = error.getCause().getStackTrace();
-                    pos = findLast( trace, 0, "org.junit.Assert" );
-                    if ( pos < trace.length
-                         && trace[pos].getClassName().equals(
-                             "org.junit.Assert" ) )
-                    {
-                        methodName = trace[pos].getMethodName();
-                    }
-                }
-                if ( methodName != null )
+                // Then it is a 4.x-style error, wrapped by the ANT
+                // JUnit test adapter
+                code = assertionCodeOf( error.getCause().getStackTrace(),
+                    "org.junit.Assert", null );
+            }
+        }
+
+        return code;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Look up the code table entry for an exception class.  The entry
+     * for each class is found once, and then remembered.
+     * @param errorClass the class of the exception
+     * @return the code
+     */
+    private static int tableCodeOf( Class<?> errorClass )
+    {
+        synchronized ( tableCodes )
+        {
+            Integer code = tableCodes.get( errorClass );
+            if ( code != null )
+            {
+                return code;
+            }
+        }
+
+        int code = 0;
+        for ( int i = 0; i < codeTable.length; i++ )
+        {
+            if ( codeTable[i] != null )
+            {
+                if (codeTable[i].isAssignableFrom(errorClass)
+                    || codeTable[i].getName().equals(errorClass.getName()))
                 {
-                    code = assertFailCodeOf( methodName );
-
-                    // Next, check for a fuzzy equals
-                    pos++;
-                    if ( pos < trace.length
-                         && trace[pos].getClassName().equals(
-                             "net.sf.webcat.junit.Assert" ) )
-                    {
-                        code = 10;
-                    }
-
-                    // Last, check for a custom assert
-                    pos = findFirst( trace, pos, currentSuite.getName() );
-                    if ( pos < trace.length
-                         && trace[pos].getMethodName().startsWith( "assert" ) )
-                    {
-                        // custom assert
-                        code = 11;
-                    }
+                    // error instanceof codeTable[i]
+                    code = i;
+                    break;
                 }
-                else if ( pos < trace.length )
+            }
+        }
+
+        synchronized ( tableCodes )
+        {
+            tableCodes.put( errorClass, code );
+        }
+        return code;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Classify a failed assertion from its stack trace, in a single pass
+     * over the trace.  The trace should start with a contiguous block of
+     * calls in the assert class, the last of which is the assert method
+     * that failed.  Any call to a fuzzy equals, or a custom assert method
+     * in the current suite, follows it.
+     * @param trace the stack trace of the failure
+     * @param assertClass the class whose methods make the assertion
+     * @param fallbackClass another class to try if the trace does not
+     * start in assertClass, or null
+     * @return the code
+     */
+    private int assertionCodeOf(
+        StackTraceElement[] trace, String assertClass, String fallbackClass )
+    {
+        if ( trace.length == 0 )
+        {
+            return 13;
+        }
+
+        String firstClass = trace[0].getClassName();
+        if ( !firstClass.equals( assertClass ) )
+        {
+            if ( !firstClass.equals( fallbackClass ) )
+            {
+                // Must be a wrapped AssertionError from some other
+                // code
+                return 29;
+            }
+            assertClass = fallbackClass;
+        }
+
+        int pos = 1;
+        while ( pos < trace.length
+                && trace[pos].getClassName().equals( assertClass ) )
+        {
+            pos++;
+        }
+        int code = assertFailCodeOf( trace[pos - 1].getMethodName() );
+
+        // Next, check for a fuzzy equals
+        if ( pos < trace.length
+             && trace[pos].getClassName().equals(
+                 "net.sf.webcat.junit.Assert" ) )
+        {
+            code = 10;
+        }
+
+        // Last, check for a custom assert
+        String suiteName = currentSuite.getName();
+        while ( pos < trace.length )
+        {
+            if ( trace[pos].getClassName().equals( suiteName ) )
+            {
+                if ( trace[pos].getMethodName().startsWith( "assert" ) )
                 {
-                    // Must be a wrapped AssertionError from some other
-                    // code
-                    code = 29;
+                    // custom assert
+                    code = 11;
                 }
+                break;
             }
+            pos++;
         }
 
         return code;
@@ -502,7 +594,8 @@ public class PlistJUnitResultFormatter
     protected int findLast(
         StackTraceElement[] stack, int pos, String className )
     {
-        if ( stack[pos].getClassName().equals( className ) )
+        if ( pos < stack.length
+             && stack[pos].getClassName().equals( className ) )
         {
             pos++;
             while ( pos < stack.length
@@ -524,14 +617,8 @@ public class PlistJUnitResultFormatter
      */
     protected int assertFailCodeOf( String name )
     {
-        for ( int i = 0; i < assertMethodTable.length; i++ )
-        {
-            if ( assertMethodTable[i].equals( name ) )
-            {
-                return i + 3;
-            }
-        }
-        return assertMethodTable.length + 2;
+        Integer code = assertFailCodes.get( name );
+        return ( code == null ) ? assertMethodTable.length + 2 : code;
     }
 
 
@@ -543,9 +630,25 @@ public class PlistJUnitResultFormatter
     /** Records the status of the current test. */
     protected boolean testPassed = true;
 
-    /** Records the status of the current test. */
+    /**
+     * The escaped plist records for the current suite that have not been
+     * written out yet.
+     */
     protected StringBuffer testResultsPlist = new StringBuffer();
 
+    /**
+     * Escapes a message as a plist string value, and then the result for
+     * Perl, in one pass.
+     */
+    private static final TextEscaper PLIST_MESSAGE =
+        TextEscaper.PLIST_STRING.then( TextEscaper.PERL_INTERPOLATED );
+
+    /**
+     * The number of characters of plist records to collect before they
+     * are written out as a chunk of their own.
+     */
+    private static final int PLIST_CHUNK_SIZE = 16 * 1024;
+
     /**
      * If true, extra newlines and tabs will be produced in the plist output.
      * */
@@ -565,6 +668,24 @@ public class PlistJUnitResultFormatter
         "fail"
     };
 
+    /** The error code for each method in assertMethodTable. */
+    private static final Map<String, Integer> assertFailCodes =
+        new HashMap<String, Integer>();
+    static
+    {
+        for ( int i = 0; i < assertMethodTable.length; i++ )
+        {
+            assertFailCodes.put( assertMethodTable[i], i + 3 );
+        }
+    }
+
+    /**
+     * The code table entry for each exception class seen so far.  The
+     * keys are weak, so that test classes can still be unloaded.
+     */
+    private static final Map<Class<?>, Integer> tableCodes =
+        new WeakHashMap<Class<?>, Integer>();
+
     /** A lookup table for determining error codes. */
     private static final Class<?>[] codeTable = {
         // Nothing matches the zero case, EVER!
@@ -0,0 +1,179 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of Web-CAT.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License
+ |  along with Web-CAT; if not, write to the Free Software
+ |  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ |
+ |  Project manager: Stephen Edwards <edwards@cs.vt.edu>
+ |  Virginia Tech CS Dept, 660 McBryde Hall (0106), Blacksburg, VA 24061 USA
+\*==========================================================================*/
+
+package net.sf.webcat.plugins.javatddplugin;
+
+//-------------------------------------------------------------------------
+/**
+ *  A set of class name prefixes to hide in stack traces, compiled into a
+ *  trie.  Checking a class name walks the trie along the name once, so
+ *  it takes time proportional to the length of the name, however many
+ *  prefixes there are.
+ *
+ *  @author Stephen Edwards
+ *  @author Last changed by $Author$
+ *  @version $Revision$, $Date$
+ */
+public class StackTraceFilter
+{
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Compile a filter from one or more lists of class (or class prefix)
+     * names.
+     * @param filterLists the lists of prefixes, any of which may be null
+     */
+    public StackTraceFilter( String[] ... filterLists )
+    {
+        for ( String[] filters : filterLists )
+        {
+            if ( filters != null )
+            {
+                for ( String filter : filters )
+                {
+                    add( filter );
+                }
+            }
+        }
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether a class name starts with any of the filter prefixes.
+     * @param className the class name to check
+     * @return true if the name matches a filter
+     */
+    public boolean matches( String className )
+    {
+        Node node = root;
+        int length = className.length();
+        for ( int i = 0; !node.terminal; i++ )
+        {
+            if ( i == length )
+            {
+                return false;
+            }
+            node = node.child( className.charAt( i ) );
+            if ( node == null )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Check whether a stack trace element comes from a class that matches
+     * any of the filter prefixes.
+     * @param frame the stack trace element to check
+     * @return true if the frame matches a filter
+     */
+    public boolean matches( StackTraceElement frame )
+    {
+        return matches( frame.getClassName() );
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Add a prefix to the trie.
+     * @param prefix the prefix to add
+     */
+    private void add( String prefix )
+    {
+        Node node = root;
+        for ( int i = 0; i < prefix.length(); i++ )
+        {
+            char c = prefix.charAt( i );
+            Node next = node.child( c );
+            if ( next == null )
+            {
+                next = node.addChild( c );
+            }
+            node = next;
+        }
+        node.terminal = true;
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A node in the trie.  Class names branch very little, so the
+     * children are kept in small parallel arrays and searched in order.
+     */
+    private static class Node
+    {
+        /** True if a prefix ends at this node. */
+        boolean terminal;
+        /** The character leading to each child. */
+        char[] labels = new char[0];
+        /** The children. */
+        Node[] children = new Node[0];
+
+        // ----------------------------------------------------------
+        Node child( char c )
+        {
+            for ( int i = 0; i < labels.length; i++ )
+            {
+                if ( labels[i] == c )
+                {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        // ----------------------------------------------------------
+        Node addChild( char c )
+        {
+            int n = labels.length;
+            char[] newLabels = new char[n + 1];
+            Node[] newChildren = new Node[n + 1];
+            System.arraycopy( labels, 0, newLabels, 0, n );
+            System.arraycopy( children, 0, newChildren, 0, n );
+            newLabels[n] = c;
+            newChildren[n] = new Node();
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[n];
+        }
+    }
+
+
+    //~ Instance/static variables .............................................
+
+    /** The root of the trie, for the empty prefix. */
+    private final Node root = new Node();
+}
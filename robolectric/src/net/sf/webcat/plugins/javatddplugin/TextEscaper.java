@@ -0,0 +1,289 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of Web-CAT.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License
+ |  along with Web-CAT; if not, write to the Free Software
+ |  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA
+ |
+ |  Project manager: Stephen Edwards <edwards@cs.vt.edu>
+ |  Virginia Tech CS Dept, 660 McBryde Hall (0106), Blacksburg, VA 24061 USA
+\*==========================================================================*/
+
+package net.sf.webcat.plugins.javatddplugin;
+
+import java.io.IOException;
+
+//-------------------------------------------------------------------------
+/**
+ *  Escapes text in a single pass, by looking up each ASCII character in a
+ *  table of replacements.  Characters with no replacement, including all
+ *  non-ASCII characters, are copied through unchanged, a run at a time.
+ *  The escaped text is written straight into the destination, rather
+ *  than into an intermediate string.
+ *
+ *  @author Stephen Edwards
+ *  @author Last changed by $Author$
+ *  @version $Revision$, $Date$
+ */
+public class TextEscaper
+{
+    //~ Instance/static variables .............................................
+
+    /**
+     * Escapes the characters that Perl interpolates in a double-quoted
+     * string or a here-document, by preceding each with a backslash.
+     */
+    public static final TextEscaper PERL_INTERPOLATED =
+        backslashing( "@$%#\"\\" );
+
+    /**
+     * Escapes the single quotes in text destined for a single-quoted Perl
+     * string.  Backslashes are left alone, as they always have been by
+     * {@link PlistJUnitResultFormatter#perlStringLiteral(String)}.
+     */
+    public static final TextEscaper PERL_SINGLE_QUOTED = backslashing( "'" );
+
+    /**
+     * Escapes the double quotes in a plist string value, as the plist
+     * reader on the Perl side expects.
+     */
+    public static final TextEscaper PLIST_STRING =
+        new TextEscaper().replacing( '"', "\\\\\"" );
+
+    /**
+     * Escapes text for a JSON string value: quotes, backslashes and all
+     * control characters.
+     */
+    public static final TextEscaper JSON_STRING = json();
+
+    /** The replacement for each ASCII character, or null to keep it. */
+    private final String[] replacements;
+
+    /** The number of entries in a table: one for each ASCII character. */
+    private static final int TABLE_SIZE = 128;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create an escaper that leaves all text unchanged.
+     */
+    public TextEscaper()
+    {
+        replacements = new String[TABLE_SIZE];
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create an escaper that uses the given table.
+     * @param replacements the replacement table, which is not copied
+     */
+    private TextEscaper( String[] replacements )
+    {
+        this.replacements = replacements;
+    }
+
+
+    //~ Public Methods ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create an escaper that precedes each of the given characters with a
+     * backslash.
+     * @param chars the ASCII characters to escape
+     * @return the new escaper
+     */
+    public static TextEscaper backslashing( String chars )
+    {
+        TextEscaper result = new TextEscaper();
+        for ( int i = 0; i < chars.length(); i++ )
+        {
+            char c = chars.charAt( i );
+            result = result.replacing( c, "\\" + c );
+        }
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create an escaper that does the same as this one, except that it
+     * replaces the given character with the given text.
+     * @param c the ASCII character to replace
+     * @param replacement the text to replace it with
+     * @return the new escaper
+     */
+    public TextEscaper replacing( char c, String replacement )
+    {
+        if ( c >= TABLE_SIZE )
+        {
+            throw new IllegalArgumentException(
+                "Only ASCII characters can be replaced: " + c );
+        }
+        String[] table = replacements.clone();
+        table[c] = replacement;
+        return new TextEscaper( table );
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Create an escaper that has the same effect as escaping text with
+     * this escaper and then escaping the result with another, but that
+     * does it in a single pass.
+     * @param next the escaper to apply second
+     * @return the new escaper
+     */
+    public TextEscaper then( TextEscaper next )
+    {
+        String[] table = new String[TABLE_SIZE];
+        for ( char c = 0; c < TABLE_SIZE; c++ )
+        {
+            String once = ( replacements[c] == null )
+                ? String.valueOf( c )
+                : replacements[c];
+            String twice = next.escape( once );
+            if ( !twice.equals( String.valueOf( c ) ) )
+            {
+                table[c] = twice;
+            }
+        }
+        return new TextEscaper( table );
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Escape a string.
+     * @param text the text to escape
+     * @return the escaped text, or null if text is null
+     */
+    public String escape( String text )
+    {
+        if ( text == null )
+        {
+            return null;
+        }
+        int pos = firstToReplace( text, 0 );
+        if ( pos == text.length() )
+        {
+            return text;
+        }
+        StringBuffer result = new StringBuffer( text.length() + 16 );
+        escape( text, result );
+        return result.toString();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Escape text into a string buffer.
+     * @param text the text to escape
+     * @param out the buffer to append the escaped text to
+     */
+    public void escape( CharSequence text, StringBuffer out )
+    {
+        try
+        {
+            escape( text, (Appendable)out );
+        }
+        catch ( IOException e )
+        {
+            // A StringBuffer never throws it
+            throw new IllegalStateException( e );
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Escape text into an arbitrary destination, such as a writer.
+     * @param text the text to escape
+     * @param out the destination to append the escaped text to
+     * @throws IOException if out throws it
+     */
+    public void escape( CharSequence text, Appendable out )
+        throws IOException
+    {
+        int length = text.length();
+        int start = 0;
+        while ( start < length )
+        {
+            int pos = firstToReplace( text, start );
+            if ( pos > start )
+            {
+                out.append( text, start, pos );
+            }
+            if ( pos < length )
+            {
+                out.append( replacements[text.charAt( pos )] );
+            }
+            start = pos + 1;
+        }
+    }
+
+
+    //~ Private Methods .......................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Create the escaper for JSON string values.
+     * @return the new escaper
+     */
+    private static TextEscaper json()
+    {
+        String[] table = new String[TABLE_SIZE];
+        for ( int c = 0; c < 0x20; c++ )
+        {
+            table[c] = String.format( "\\u%04x", c );
+        }
+        table['\b'] = "\\b";
+        table['\f'] = "\\f";
+        table['\n'] = "\\n";
+        table['\r'] = "\\r";
+        table['\t'] = "\\t";
+        table['"']  = "\\\"";
+        table['\\'] = "\\\\";
+        return new TextEscaper( table );
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Find the next character that has a replacement.
+     * @param text the text to search
+     * @param pos the position to start searching from
+     * @return the position of the character, or the length of the text if
+     * there is none
+     */
+    private int firstToReplace( CharSequence text, int pos )
+    {
+        int length = text.length();
+        while ( pos < length )
+        {
+            char c = text.charAt( pos );
+            if ( c < TABLE_SIZE && replacements[c] != null )
+            {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+}
@@ -44,13 +44,13 @@ import com.xtremelabs.robolectric.shadows.ShadowDialog;
 import com.xtremelabs.robolectric.tester.android.view.TestMenu;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.Before;
 
 import student.android.internal.AndroidViewFilter;
 import student.android.internal.AndroidViewFinder;
+import student.android.internal.ResourceIdNames;
 
 //-------------------------------------------------------------------------
 /**
@@ -442,7 +442,7 @@ public class ActivityTestCase<ActivityType extends Activity>
     {
         View result = null;
 
-        List<View> views = getViewFinder().find(filter);
+        List<View> views = getViewFinder().find(filter, 1);
 
         if (views.size() == 0)
         {
@@ -611,7 +611,9 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     public View getView(AndroidViewFilter filter)
     {
-        List<View> views = getViewFinder().find(filter);
+        // Two matches are enough to know that the view is not unique; the
+        // full count is only needed for the failure message.
+        List<View> views = getViewFinder().find(filter, 2);
         View result = null;
 
         if (views.size() == 0)
@@ -620,7 +622,8 @@ public class ActivityTestCase<ActivityType extends Activity>
         }
         else if (views.size() > 1)
         {
-            fail("Found " + views.size() + " views matching: " + filter);
+            fail("Found " + getAllViewsMatching(filter).size()
+                + " views matching: " + filter);
         }
         else
         {
@@ -1025,12 +1028,11 @@ public class ActivityTestCase<ActivityType extends Activity>
 
             AndroidViewFinder finder = new AndroidViewFinder(decorView);
 
-            List<View> listViews = finder.find(
+            listView = (AbsListView) finder.findFirst(
                 where.typeIs(AbsListView.class).and.visibilityIs(true));
 
-            if (listViews.size() > 0)
+            if (listView != null)
             {
-                listView = (AbsListView) listViews.get(0);
                 break;
             }
         }
@@ -1223,6 +1225,14 @@ public class ActivityTestCase<ActivityType extends Activity>
     /**
      * Gets the {@link AndroidViewFinder} that can be used to traverse the view
      * hierarchy of the activity and find subviews that meet certain criteria.
+     * Robolectric runs everything on the test thread and never lays out the
+     * activity, so a test can change the hierarchy at any point without
+     * going through an interaction method (by calling
+     * {@code performClick()}, {@code setText()}, or a method of the activity
+     * that adds views, for instance). A snapshot of the hierarchy could
+     * silently give the wrong results after such a change, so each finder
+     * walks the live hierarchy instead, stopping as soon as it has found
+     * enough views.
      *
      * @return the {@link AndroidViewFinder} to use for the test methods
      */
@@ -1307,18 +1317,15 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     public int getIdByName(String fieldName)
     {
-        // TODO Replace this with new reflection introspection code instead.
+        Integer id = ResourceIdNames.forClass(idClass()).idForName(fieldName);
 
-        try
-        {
-            Field idField = idClass().getField(fieldName);
-            return idField.getInt(null);
-        }
-        catch (Exception e)
+        if (id == null)
         {
             fail("Cannot find a resource ID with name \"" + fieldName + "\"");
             return 0;
         }
+
+        return id;
     }
 
 
@@ -1334,37 +1341,15 @@ public class ActivityTestCase<ActivityType extends Activity>
      */
     private String getFieldNameForId(int id)
     {
-        // TODO Replace this with new reflection introspection code instead.
+        String name = ResourceIdNames.forClass(idClass()).nameForId(id);
 
-        Field[] idFields = idClass().getFields();
-
-        for (Field idField : idFields)
+        if (name == null)
         {
-            int modifiers = Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL;
-
-            if (idField.getType().equals(int.class)
-                    && (idField.getModifiers() & modifiers) == modifiers)
-            {
-                try
-                {
-                    int value = idField.getInt(null);
-
-                    if (value == id)
-                    {
-                        return idField.getName();
-                    }
-                }
-                catch (Exception e)
-                {
-                    // Do nothing.
-                }
-            }
+            fail("Cannot find an id in the R.id class with value 0x"
+                    + Integer.toString(id, 16));
         }
 
-        fail("Cannot find an id in the R.id class with value 0x"
-                + Integer.toString(id, 16));
-
-        return null;
+        return name;
     }
 
 
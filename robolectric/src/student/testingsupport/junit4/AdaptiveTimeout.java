@@ -25,9 +25,9 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
-import org.junit.internal.runners.statements.FailOnTimeout;
 import org.junit.rules.MethodRule;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.Statement;
@@ -72,6 +72,37 @@ import org.junit.runners.model.Statement;
  * student.testingsupport.junit4.AdaptiveTimeout.threshold (default: 0.6)
  * student.testingsupport.junit4.AdaptiveTimeout.rampup (default: 1.4)
  * student.testingsupport.junit4.AdaptiveTimeout.rampdown (default: 0.5)
+ * student.testingsupport.junit4.AdaptiveTimeout.clock (default: wall)
+ * student.testingsupport.junit4.AdaptiveTimeout.wallFactor (default: 4.0)
+ * </pre>
+ * </p><p>
+ * By default, the time each method takes, and the ceiling it is held to, are
+ * measured by the wall clock. On a grading server that is running many tests
+ * at once, though, methods may take longer just because they are waiting
+ * for the CPU. If the clock property is set to "cpu", the CPU time used by
+ * the thread running the test is measured instead, and the ceiling is
+ * enforced in CPU time, with a hard cap on the wall-clock time of the
+ * ceiling multiplied by the wallFactor property. If the JVM cannot measure
+ * the CPU time of threads, the wall clock is used regardless.
+ * </p><p>
+ * The log written by {@link #appendStatsToFile()} can also be read back on
+ * later runs, by setting the history property to the name of a log file,
+ * which is usually the same as the logfile property. This is not done
+ * unless the history property is set. A method that has terminated at least
+ * minSamples times in the log is then held to its own timeout, rather than
+ * the running ceiling: the given percentile of its last maxSamples logged
+ * times, multiplied by the historyFactor, and kept between the minimum and
+ * the maximum. Methods that are known to be slow but correct keep generous
+ * timeouts, while methods that are known to be fast are cut off quickly if
+ * they stop terminating. The log should have been written using the same
+ * clock. Only the end of a long log is read; see {@link TimingHistory}. The
+ * properties are:
+ * <pre>
+ * student.testingsupport.junit4.AdaptiveTimeout.history (default: none)
+ * student.testingsupport.junit4.AdaptiveTimeout.percentile (default: 95)
+ * student.testingsupport.junit4.AdaptiveTimeout.historyFactor (default: 2.0)
+ * student.testingsupport.junit4.AdaptiveTimeout.minSamples (default: 3)
+ * student.testingsupport.junit4.AdaptiveTimeout.maxSamples (default: 50)
  * </pre>
  * </p>
  *
@@ -92,9 +123,13 @@ public class AdaptiveTimeout
 	private final double rampup;
 	private final double rampdown;
 
-	private long start;
+	private volatile long start;
 	private long end;
 
+	// The thread that runs the current method, on which the CPU clock is
+	// read.
+	private volatile Thread testThread;
+
 	private final List<String> methodLog;
 	private int numTestMethodsInTestClass;
 	private int numTestMethodsInTotal;
@@ -104,11 +139,29 @@ public class AdaptiveTimeout
 	private String className;
 	private String methodName;
 
+	// The timeout applied to the current method, and whether it came from
+	// the history rather than the ceiling.
+	private int timeout;
+	private boolean timeoutFromHistory;
+
+	// Whether the last method logged finished before its timeout.
+	private boolean lastTerminated = true;
+
+	private final boolean cpuClock;
+	private final double wallFactor;
+
+	private final TimingHistory history;
+	private final double percentile;
+	private final double historyFactor;
+	private final int minSamples;
+
 	private static final String PROPERTY_PREFIX =
 	    AdaptiveTimeout.class.getName();
 	private static final String LOGFILE_NAME = PROPERTY_PREFIX + ".logfile";
 	private static final String USER_NAME = PROPERTY_PREFIX + ".user";
     private static final String INCLUDE_HEADER = PROPERTY_PREFIX + ".header";
+    private static final String CLOCK = PROPERTY_PREFIX + ".clock";
+    private static final String HISTORY = PROPERTY_PREFIX + ".history";
 
     private static final int DEFAULT_CEILING = 10000;
     private static final int DEFAULT_MAXIMUM = 20000;
@@ -116,6 +169,11 @@ public class AdaptiveTimeout
     private static final double DEFAULT_THRESHOLD = 0.6;
     private static final double DEFAULT_RAMPUP = 1.4;
     private static final double DEFAULT_RAMPDOWN = 0.5;
+    private static final double DEFAULT_WALL_FACTOR = 4.0;
+    private static final double DEFAULT_PERCENTILE = 95;
+    private static final double DEFAULT_HISTORY_FACTOR = 2.0;
+    private static final int DEFAULT_MIN_SAMPLES = 3;
+    private static final int DEFAULT_MAX_SAMPLES = 50;
 
 
 	//~ Constructors ..........................................................
@@ -187,6 +245,26 @@ public class AdaptiveTimeout
 		this.rampup = rampup;
 		this.rampdown = rampdown;
 
+		cpuClock = "cpu".equalsIgnoreCase(System.getProperty(CLOCK))
+		    && TimeoutWatchdog.isCpuTimeSupported();
+		wallFactor = Math.max(1.0,
+		    getProperty("wallFactor", DEFAULT_WALL_FACTOR));
+
+		percentile = Math.min(100, Math.max(0,
+		    getProperty("percentile", DEFAULT_PERCENTILE)));
+		historyFactor = getProperty("historyFactor", DEFAULT_HISTORY_FACTOR);
+		minSamples = Math.max(1,
+		    getProperty("minSamples", DEFAULT_MIN_SAMPLES));
+		int maxSamples = Math.max(minSamples,
+		    getProperty("maxSamples", DEFAULT_MAX_SAMPLES));
+
+		String historyName = System.getProperty(HISTORY);
+		history = (historyName == null)
+		    ? null
+		    : TimingHistory.forFile(new File(historyName), maxSamples);
+
+		timeout = ceiling;
+
 		methodLog = new ArrayList<String>();
 		headerPrinted = false;
 		clearLog();
@@ -210,7 +288,9 @@ public class AdaptiveTimeout
 
 	    long diff = end - start;
 
-		if (diff > ceiling)
+		// In CPU time, a method that timed out because of the wall-clock
+		// cap may not have used up its timeout.
+		if (diff > timeout || !lastTerminated)
 		{
 		    numNonterminatingTestMethods++;
 		    if (numNonterminatingTestMethods >= 2)
@@ -226,7 +306,7 @@ public class AdaptiveTimeout
 		        }
 		    }
 		}
-		else if (diff > ceiling * threshold)
+		else if (!timeoutFromHistory && diff > ceiling * threshold)
 		{
 		    if ((ceiling * rampup) > maximum)
 		    {
@@ -251,8 +331,38 @@ public class AdaptiveTimeout
         className = target.getClass().getName();
 		methodName = method.getName();
 
-		start = end = System.currentTimeMillis();
-		return new FailOnTimeout(base, ceiling);
+		lastTerminated = true;
+
+		int historyTimeout = historyTimeout();
+		timeoutFromHistory = (historyTimeout > 0);
+		timeout = timeoutFromHistory ? historyTimeout : ceiling;
+
+		testThread = Thread.currentThread();
+		start = end = now();
+
+		// The watchdog may run the method on a thread of its own, so start
+		// the clock again on whatever thread that turns out to be.
+		final Statement next = base;
+		Statement timed = new Statement() {
+		    @Override
+		    public void evaluate()
+		        throws Throwable
+		    {
+		        testThread = Thread.currentThread();
+		        start = end = now();
+		        next.evaluate();
+		    }
+		};
+
+		if (cpuClock)
+		{
+		    return TimeoutWatchdog.failOnCpuTimeout(
+		        timed, timeout, (long) (timeout * wallFactor + 0.5));
+		}
+		else
+		{
+		    return TimeoutWatchdog.failOnTimeout(timed, timeout);
+		}
 	}
 
 
@@ -265,7 +375,11 @@ public class AdaptiveTimeout
 	 */
 	public void logTestMethod(boolean terminated)
 	{
-	    long now = System.currentTimeMillis();
+	    long now = now();
+
+	    // The @After methods of a method that timed out still run, before
+	    // the method fails.
+	    terminated = terminated && !TimeoutWatchdog.hasTimedOut();
 
 	    if (methodLog.size() >= numTestMethodsInTestClass)
 	    {
@@ -273,6 +387,7 @@ public class AdaptiveTimeout
 	    }
 
 	    end = now;
+	    lastTerminated = terminated;
         methodLog.add(
             numTestMethodsInTotal + ","
             + className + ","
@@ -281,7 +396,7 @@ public class AdaptiveTimeout
             + terminated + ","
             + (end - start) + ","
             + minimum + ","
-            + ceiling + ","
+            + timeout + ","
             + maximum);
 	}
 
@@ -356,6 +471,62 @@ public class AdaptiveTimeout
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Gets the current time on the clock that the ceiling is measured by.
+     * The CPU time is that of the thread that runs the current method, even
+     * when this is called on another thread, such as when the method timed
+     * out on a thread that the watchdog started for it and its
+     * {@code @After} methods never ran.
+     *
+     * @return the CPU time used by the thread running the current method,
+     *     or the wall-clock time, in milliseconds
+     */
+    private long now()
+    {
+        if (cpuClock)
+        {
+            Thread thread = testThread;
+            long time = (thread == null)
+                ? ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime()
+                : ManagementFactory.getThreadMXBean()
+                    .getThreadCpuTime(thread.getId());
+
+            // The thread has ended, after its method was logged.
+            return (time < 0) ? end : time / 1000000;
+        }
+        else
+        {
+            return System.currentTimeMillis();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Computes the timeout for the current method from the times it took in
+     * earlier runs.
+     *
+     * @return the timeout, in milliseconds, or 0 if there are not enough
+     *     times recorded for the method
+     */
+    private int historyTimeout()
+    {
+        if (history == null
+            || history.getSampleCount(className, methodName) < minSamples)
+        {
+            return 0;
+        }
+
+        double budget = history.getPercentile(
+            className, methodName, percentile) * historyFactor;
+
+        // At least 1, since a timeout of 0 would mean no timeout at all.
+        return (int) Math.min(maximum,
+            Math.max(Math.max(minimum, 1), budget + 0.5));
+    }
+
+
     // ----------------------------------------------------------
     private void clearLog()
     {
@@ -21,7 +21,6 @@
 
 package student.testingsupport.junit4;
 
-import org.junit.internal.runners.statements.FailOnTimeout;
 import org.junit.rules.*;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.Statement;
@@ -97,18 +96,18 @@ public class AdvancedTimeout
 			classwide = classwide - diff;
 			if (useMethodTimeout)
 			{
-				return new FailOnTimeout(base, Math.min(classwide, method));
+				return TimeoutWatchdog.failOnTimeout(base, Math.min(classwide, method));
 			}
 			else
 			{
-				return new FailOnTimeout(base, classwide);
+				return TimeoutWatchdog.failOnTimeout(base, classwide);
 			}
 		}
 		else
 		{
 			if (useMethodTimeout)
 			{
-				return new FailOnTimeout(base, method);
+				return TimeoutWatchdog.failOnTimeout(base, method);
 			}
 			else
 			{
@@ -21,7 +21,6 @@
 
 package student.testingsupport.junit4;
 
-import org.junit.internal.runners.statements.FailOnTimeout;
 import org.junit.rules.MethodRule;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.Statement;
@@ -137,7 +136,7 @@ public class AverageTimeout
 			// System.out.println("timeout was exceeded previously");
 			int timeout = (exceeded) ? avg * strict : avg * allowance;
 			// System.out.println("giving next test " + timeout + "ms to run");
-			return new FailOnTimeout(base, timeout);
+			return TimeoutWatchdog.failOnTimeout(base, timeout);
 		} else
 		{
 			return base;
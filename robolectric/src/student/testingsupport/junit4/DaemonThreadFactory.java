@@ -0,0 +1,73 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//-------------------------------------------------------------------------
+/**
+ * Creates the daemon threads of the pools that run tests, so that a test
+ * that never finishes does not keep the JVM alive. The threads are named
+ * after the pool, as in "MixRunner-2-1" for the first thread of the second
+ * pool with that name.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+class DaemonThreadFactory
+    implements ThreadFactory
+{
+    //~ Instance/static variables .............................................
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final String prefix;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a factory for the threads of a new pool.
+     *
+     * @param name the name of the pool, which starts the name of each thread
+     */
+    DaemonThreadFactory(String name)
+    {
+        prefix = name + "-" + poolNumber.incrementAndGet() + "-";
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread =
+            new Thread(runnable, prefix + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,517 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//-------------------------------------------------------------------------
+/**
+ * The tables of the database returned by
+ * {@link RobolectricMixRunner#getDatabase()}, which are created and filled
+ * with their initial rows once, and then put back the way they were before
+ * each test.
+ *
+ * Each table is registered with its column definitions and a {@link Seed}
+ * that supplies its initial rows. The first time the table is built, it is
+ * created along with a template table (its name followed by
+ * "{@code _template}") that holds a copy of those rows. Before each test,
+ * {@link RobolectricMixRunner} calls {@link #restore()}, which just empties
+ * each table and copies its rows back from its template, rather than running
+ * all of the DDL again. The whole database is only rebuilt if a test closed
+ * it, or created tables of its own, or if something goes wrong while
+ * restoring it.
+ *
+ * The library registers the media_images table that the shadow
+ * {@code ContentResolver} queries. Test cases can register tables of their
+ * own, typically in {@code setUp()} or a {@code @BeforeClass} method:
+ * <pre>
+ * DatabaseTemplate.registerTable("contacts",
+ *     "_id integer, name varchar(255)",
+ *     Arrays.asList(new Object[][] {
+ *         { 1, "Alice" },
+ *         { 2, "Bob" } }));
+ * </pre>
+ * Registering a table that is already registered the same way does
+ * nothing, so this is cheap to do before every test. A table that is
+ * registered while the database is open is available immediately.
+ * Registrations last until the table is unregistered, so they are shared by
+ * every test class run afterwards in the same JVM.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class DatabaseTemplate
+{
+    //~ Instance/static variables .............................................
+
+    private static final String TEMPLATE_SUFFIX = "_template";
+
+    // The number of rows inserted by each statement.
+    private static final int INSERT_BATCH_SIZE = 256;
+
+    private static final Map<String, Table> tables =
+        new LinkedHashMap<String, Table>();
+
+    private static SQLiteDatabase database;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * This class provides only static methods.
+     */
+    private DatabaseTemplate()
+    {
+        // Nothing to do.
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the database, opening it and building its tables if necessary.
+     *
+     * @return the database
+     */
+    public static synchronized SQLiteDatabase getDatabase()
+    {
+        if (database == null)
+        {
+            open();
+        }
+
+        return database;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Registers a table whose rows never change.
+     *
+     * @param name the name of the table
+     * @param columns the column definitions, as they would appear in a
+     *     {@code create table} statement
+     * @param rows the initial rows of the table, each of which holds a value
+     *     for each column, in order
+     */
+    public static void registerTable(
+        String name, String columns, List<Object[]> rows)
+    {
+        registerTable(name, columns, new FixedSeed(rows));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Registers a table whose rows are supplied by the specified seed. If a
+     * table with the same name is already registered with different columns
+     * or a different seed, it is replaced.
+     *
+     * @param name the name of the table
+     * @param columns the column definitions, as they would appear in a
+     *     {@code create table} statement
+     * @param seed supplies the initial rows of the table
+     */
+    public static synchronized void registerTable(
+        String name, String columns, Seed seed)
+    {
+        if (!name.matches("[A-Za-z_][A-Za-z0-9_]*"))
+        {
+            throw new IllegalArgumentException(
+                "Invalid table name: " + name);
+        }
+
+        Table old = tables.get(name);
+
+        if (old != null && old.columns.equals(columns)
+            && old.seed.equals(seed))
+        {
+            return;
+        }
+
+        Table table = new Table(name, columns, seed);
+        tables.put(name, table);
+
+        if (database != null)
+        {
+            try
+            {
+                build(table);
+            }
+            catch (RuntimeException e)
+            {
+                discard();
+                throw e;
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Unregisters a table, dropping it from the database if it is open.
+     *
+     * @param name the name of the table
+     */
+    public static synchronized void unregisterTable(String name)
+    {
+        if (tables.remove(name) != null && database != null)
+        {
+            try
+            {
+                database.execSQL("drop table if exists " + name);
+                database.execSQL(
+                    "drop table if exists " + name + TEMPLATE_SUFFIX);
+            }
+            catch (RuntimeException e)
+            {
+                discard();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Puts every registered table back the way it was when it was built,
+     * rebuilding any table whose seed now supplies different rows.
+     */
+    public static synchronized void restore()
+    {
+        if (database != null)
+        {
+            try
+            {
+                if (reusable())
+                {
+                    for (Table table : tables.values())
+                    {
+                        if (table.seed.getRows() == table.builtRows)
+                        {
+                            database.execSQL("delete from " + table.name);
+                            database.execSQL("insert into " + table.name
+                                + " select * from " + table.name
+                                + TEMPLATE_SUFFIX);
+                        }
+                        else
+                        {
+                            build(table);
+                        }
+                    }
+
+                    return;
+                }
+            }
+            catch (RuntimeException e)
+            {
+                // Rebuild it below.
+            }
+
+            discard();
+        }
+
+        open();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Opens a new database and builds all of the registered tables in it.
+     */
+    private static void open()
+    {
+        database = SQLiteDatabase.openDatabase("content", null, 0);
+
+        try
+        {
+            for (Table table : tables.values())
+            {
+                build(table);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            discard();
+            throw e;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Closes the database, if it can be, and forgets it.
+     */
+    private static void discard()
+    {
+        try
+        {
+            database.close();
+        }
+        catch (RuntimeException e)
+        {
+            // Ignore it; a new database is opened regardless.
+        }
+
+        database = null;
+
+        for (Table table : tables.values())
+        {
+            table.builtRows = null;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a table and its template, replacing them if they already
+     * exist, and fills both with the rows from the table's seed.
+     *
+     * @param table the table
+     */
+    private static void build(Table table)
+    {
+        List<Object[]> rows = table.seed.getRows();
+        String template = table.name + TEMPLATE_SUFFIX;
+
+        table.builtRows = null;
+
+        database.execSQL("drop table if exists " + table.name);
+        database.execSQL("drop table if exists " + template);
+        database.execSQL(
+            "create table " + table.name + " (" + table.columns + ")");
+        database.execSQL(
+            "create table " + template + " (" + table.columns + ")");
+
+        for (int start = 0; start < rows.size(); start += INSERT_BATCH_SIZE)
+        {
+            int end = Math.min(start + INSERT_BATCH_SIZE, rows.size());
+            StringBuilder sql = new StringBuilder("insert into ");
+            sql.append(template);
+            sql.append(" values ");
+            List<Object> args = new ArrayList<Object>();
+
+            for (int i = start; i < end; i++)
+            {
+                Object[] row = rows.get(i);
+
+                sql.append(i == start ? "(" : ", (");
+
+                for (int column = 0; column < row.length; column++)
+                {
+                    sql.append(column == 0 ? "?" : ", ?");
+                    args.add(row[column]);
+                }
+
+                sql.append(")");
+            }
+
+            database.execSQL(sql.toString(), args.toArray());
+        }
+
+        database.execSQL(
+            "insert into " + table.name + " select * from " + template);
+
+        table.builtRows = rows;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determines whether the database can be restored, rather than rebuilt:
+     * whether it is still open and contains no tables other than the ones
+     * that have been registered.
+     *
+     * @return true if the database can be restored
+     */
+    private static boolean reusable()
+    {
+        if (!database.isOpen())
+        {
+            return false;
+        }
+
+        Set<String> known = new HashSet<String>();
+
+        for (Table table : tables.values())
+        {
+            if (table.builtRows != null)
+            {
+                known.add(table.name.toUpperCase());
+                known.add((table.name + TEMPLATE_SUFFIX).toUpperCase());
+            }
+        }
+
+        Cursor cursor = database.rawQuery("select table_name from "
+            + "information_schema.tables where table_schema = 'PUBLIC'",
+            null);
+
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                if (!known.remove(cursor.getString(0).toUpperCase()))
+                {
+                    return false;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        // If any of the tables are missing, rebuild them all.
+        return known.isEmpty();
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Supplies the initial rows of a table.
+     */
+    public interface Seed
+    {
+        // ----------------------------------------------------------
+        /**
+         * Gets the initial rows of the table. Each row holds a value for
+         * each column of the table, in order. The table is rebuilt whenever
+         * this returns a different list from the one it was last built from,
+         * so a seed whose rows have not changed should return the same list
+         * each time.
+         *
+         * @return the initial rows of the table
+         */
+        List<Object[]> getRows();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A seed whose rows never change.
+     */
+    private static class FixedSeed
+        implements Seed
+    {
+        private List<Object[]> rows;
+
+        // ----------------------------------------------------------
+        public FixedSeed(List<Object[]> rows)
+        {
+            List<Object[]> copy = new ArrayList<Object[]>(rows.size());
+
+            for (Object[] row : rows)
+            {
+                copy.add(row.clone());
+            }
+
+            this.rows = Collections.unmodifiableList(copy);
+        }
+
+
+        // ----------------------------------------------------------
+        public List<Object[]> getRows()
+        {
+            return rows;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof FixedSeed))
+            {
+                return false;
+            }
+
+            List<Object[]> otherRows = ((FixedSeed) other).rows;
+
+            if (rows.size() != otherRows.size())
+            {
+                return false;
+            }
+
+            for (int i = 0; i < rows.size(); i++)
+            {
+                if (!Arrays.deepEquals(rows.get(i), otherRows.get(i)))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public int hashCode()
+        {
+            int hash = 1;
+
+            for (Object[] row : rows)
+            {
+                hash = 31 * hash + Arrays.deepHashCode(row);
+            }
+
+            return hash;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A registered table.
+     */
+    private static class Table
+    {
+        private String name;
+        private String columns;
+        private Seed seed;
+
+        // The rows the table was built from in the current database, or
+        // null if it has not been built there.
+        private List<Object[]> builtRows;
+
+        // ----------------------------------------------------------
+        public Table(String name, String columns, Seed seed)
+        {
+            this.name = name;
+            this.columns = columns;
+            this.seed = seed;
+        }
+    }
+}
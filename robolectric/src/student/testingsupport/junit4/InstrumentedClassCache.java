@@ -0,0 +1,385 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.JarFile;
+
+//-------------------------------------------------------------------------
+/**
+ * A cache of the classes that Robolectric has instrumented, kept in a
+ * directory of its own and shared by several JVMs.
+ *
+ * Robolectric reads its cache when it creates its instrumenting class
+ * loader, and writes all of it back from a shutdown hook, without any
+ * locking, so JVMs that use the same file can read it half-written or write
+ * over each other. Instead, each JVM is given a private copy of the shared
+ * jar to use, along with a lock file that it holds until it exits. The next
+ * JVM to open the cache once the owner of a copy has exited publishes the
+ * copy, if Robolectric wrote to it: the copy is checked to be a complete jar
+ * and then renamed over the shared jar, so that the shared jar is only ever
+ * replaced whole. Opening the cache and publishing copies are done while
+ * holding a lock on the directory.
+ *
+ * The directory is created readable and writable only by its owner. Since
+ * every class in it is trusted by every later run, it must not be writable
+ * by the code under test.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+class InstrumentedClassCache
+{
+    //~ Instance/static variables .............................................
+
+    private static final String SHARED_JAR = "cached-robolectric-classes.jar";
+    private static final String DIRECTORY_LOCK = "cache.lock";
+    private static final String COPY_PREFIX = "jvm-";
+    private static final String COPY_SUFFIX = ".jar";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    // The modification time given to a fresh copy, so that one that
+    // Robolectric has written to can be told apart from it.
+    private static final long UNWRITTEN = 1000;
+
+    // How long to wait before trying again for the lock on the directory,
+    // when another thread in this JVM holds it.
+    private static final long LOCK_RETRY = 10;
+
+    // The locks on the copies in use by this JVM, which must stay reachable
+    // until it exits, since a lock that is collected is released.
+    private static final List<FileLock> held = new ArrayList<FileLock>();
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * This class is not instantiated.
+     */
+    private InstrumentedClassCache()
+    {
+        // Nothing to do.
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Opens the cache in the specified directory, creating it if necessary,
+     * and publishes any copies that JVMs that have since exited left behind.
+     *
+     * @param directory the directory of the cache
+     * @return the private copy of the cache for this JVM to use
+     * @throws IOException if the cache cannot be opened
+     */
+    static File open(File directory)
+        throws IOException
+    {
+        if (!directory.isDirectory())
+        {
+            if (!directory.mkdirs())
+            {
+                throw new IOException("Could not create " + directory);
+            }
+
+            // Start by taking every permission away, then give the owner
+            // back the ones it needs.
+            directory.setReadable(false, false);
+            directory.setWritable(false, false);
+            directory.setExecutable(false, false);
+            directory.setReadable(true, true);
+            directory.setWritable(true, true);
+            directory.setExecutable(true, true);
+        }
+
+        FileLock directoryLock = lock(new File(directory, DIRECTORY_LOCK));
+
+        try
+        {
+            publishFinishedCopies(directory);
+
+            File lockFile = File.createTempFile(
+                COPY_PREFIX, LOCK_SUFFIX, directory);
+            FileLock copyLock = new RandomAccessFile(lockFile, "rw")
+                .getChannel().tryLock();
+
+            if (copyLock == null)
+            {
+                throw new IOException("Could not lock " + lockFile);
+            }
+
+            synchronized (held)
+            {
+                held.add(copyLock);
+            }
+
+            File copy = copyFor(lockFile);
+            File shared = new File(directory, SHARED_JAR);
+
+            if (shared.isFile())
+            {
+                copy(shared, copy);
+            }
+
+            copy.setLastModified(UNWRITTEN);
+
+            return copy;
+        }
+        finally
+        {
+            directoryLock.release();
+            directoryLock.channel().close();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Publishes the copies whose JVMs have exited, newest last, so that the
+     * newest one is the one that is kept, and deletes them.
+     *
+     * @param directory the directory of the cache
+     * @throws IOException if the directory cannot be read
+     */
+    private static void publishFinishedCopies(File directory)
+        throws IOException
+    {
+        File[] lockFiles = directory.listFiles();
+
+        if (lockFiles == null)
+        {
+            throw new IOException("Could not read " + directory);
+        }
+
+        Arrays.sort(lockFiles, new Comparator<File>() {
+            public int compare(File a, File b)
+            {
+                long difference =
+                    copyFor(a).lastModified() - copyFor(b).lastModified();
+                return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+            }
+        });
+
+        File shared = new File(directory, SHARED_JAR);
+
+        for (File lockFile : lockFiles)
+        {
+            String name = lockFile.getName();
+
+            if (!name.startsWith(COPY_PREFIX) || !name.endsWith(LOCK_SUFFIX))
+            {
+                continue;
+            }
+
+            FileChannel channel = new RandomAccessFile(lockFile, "rw")
+                .getChannel();
+
+            try
+            {
+                FileLock lock;
+
+                try
+                {
+                    lock = channel.tryLock();
+                }
+                catch (OverlappingFileLockException e)
+                {
+                    // The copy is in use by this JVM.
+                    lock = null;
+                }
+
+                if (lock == null)
+                {
+                    continue;
+                }
+
+                File copy = copyFor(lockFile);
+
+                if (copy.isFile()
+                    && copy.lastModified() != UNWRITTEN
+                    && isComplete(copy))
+                {
+                    // Renaming is atomic where the platform allows the
+                    // target to exist. Where it does not, the shared jar
+                    // has to be deleted first.
+                    if (!copy.renameTo(shared))
+                    {
+                        shared.delete();
+                        copy.renameTo(shared);
+                    }
+                }
+
+                copy.delete();
+                lock.release();
+            }
+            finally
+            {
+                channel.close();
+            }
+
+            lockFile.delete();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Waits for an exclusive lock on a file, creating it if necessary.
+     *
+     * @param file the file
+     * @return the lock
+     * @throws IOException if the file cannot be locked
+     */
+    private static FileLock lock(File file)
+        throws IOException
+    {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return channel.lock();
+                }
+                catch (OverlappingFileLockException e)
+                {
+                    // Another thread in this JVM holds it, perhaps for a
+                    // copy of this class in another class loader.
+                    try
+                    {
+                        Thread.sleep(LOCK_RETRY);
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while locking "
+                            + file);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the copy of the cache that goes with a lock file.
+     *
+     * @param lockFile the lock file
+     * @return the copy
+     */
+    private static File copyFor(File lockFile)
+    {
+        String name = lockFile.getName();
+
+        if (name.endsWith(LOCK_SUFFIX))
+        {
+            name = name.substring(0, name.length() - LOCK_SUFFIX.length());
+        }
+
+        return new File(lockFile.getParentFile(), name + COPY_SUFFIX);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets whether a file is a complete jar. A jar that was only partly
+     * written is missing the directory at its end, so it cannot be opened.
+     *
+     * @param file the file
+     * @return true if the file can be opened as a jar
+     */
+    private static boolean isComplete(File file)
+    {
+        try
+        {
+            new JarFile(file).close();
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Copies a file.
+     *
+     * @param from the file to copy
+     * @param to the file to copy it to
+     * @throws IOException if the file cannot be copied
+     */
+    private static void copy(File from, File to)
+        throws IOException
+    {
+        InputStream in = new FileInputStream(from);
+
+        try
+        {
+            OutputStream out = new FileOutputStream(to);
+
+            try
+            {
+                byte[] buffer = new byte[65536];
+                int count;
+
+                while ((count = in.read(buffer)) >= 0)
+                {
+                    out.write(buffer, 0, count);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -21,10 +21,8 @@
 
 package student.testingsupport.junit4;
 
-import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
-import org.junit.After;
-import org.junit.Before;
 import org.junit.Rule;
 import org.junit.internal.runners.model.MultipleFailureException;
 import org.junit.internal.runners.model.ReflectiveCallable;
@@ -32,6 +30,7 @@ import org.junit.internal.runners.statements.Fail;
 import org.junit.internal.runners.statements.RunAfters;
 import org.junit.internal.runners.statements.RunBefores;
 import org.junit.rules.MethodRule;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
@@ -50,6 +49,14 @@ import org.junit.runners.model.Statement;
  * It also looks for JUnit3 setUp() and tearDown() methods and performs them
  * as if they are JUnit4 {@code @Before}s and {@code @After}s.
  *
+ * Test methods are normally run one at a time. If the system property
+ * {@code student.testingsupport.junit4.MixRunner.threads} is set to a number
+ * greater than one, they are instead run concurrently on that many threads
+ * using a {@link ParallelScheduler}, each with its own {@code System.out},
+ * {@code System.err}, and {@code System.in}. Results are still reported in
+ * the usual order, once each test has finished. This is only suitable for
+ * test classes whose test methods do not share any other state.
+ *
  * @author Craig Estep
  * @author Last changed by $Author: stedwar2 $
  * @version $Revision: 1.2 $, $Date: 2011/06/09 15:35:28 $
@@ -59,9 +66,10 @@ public class MixRunner
 {
     //~ Instance/static variables .............................................
 
-	private List<FrameworkMethod> befores = null;
-	private boolean junit3methodsAdded = false;
-	private boolean junit3aftersAdded = false;
+	private TestMethodDiscovery discovery;
+
+	private static final String THREADS =
+	    MixRunner.class.getName() + ".threads";
 
 
 	//~ Constructors ..........................................................
@@ -77,6 +85,13 @@ public class MixRunner
 	    throws InitializationError
 	{
 		super(klass);
+
+		int threads = Integer.getInteger(THREADS, 1);
+
+		if (threads > 1)
+		{
+			setScheduler(new ParallelScheduler(threads));
+		}
 	}
 
 
@@ -95,28 +110,7 @@ public class MixRunner
 	protected Statement withBefores(
 	    FrameworkMethod method, Object target, Statement statement)
 	{
-		List<FrameworkMethod> annotatedBefores =
-		    getTestClass().getAnnotatedMethods(Before.class);
-
-		if (befores != annotatedBefores)
-		{
-            befores = annotatedBefores;
-		    // FIXME: This code only finds setUp() if it is public,
-		    // when the inherited method is protected.
-			Method[] methods = getTestClass().getJavaClass().getMethods();
-			for (Method m : methods)
-			{
-			    // Need to check for correct signature
-			    // Need to ensure it isn't annotated as @Before already
-				if (m.getName().equals("setUp"))
-				{
-					FrameworkMethod fm = new FrameworkMethod(m);
-					// add at the end, so it will be executed last, after
-					// all other @Before methods
-					befores.add(fm);
-				}
-			}
-		}
+		List<FrameworkMethod> befores = discovery().getBefores();
 
 		return befores.isEmpty()
 		    ? statement
@@ -139,26 +133,7 @@ public class MixRunner
 	protected Statement withAfters(
 	    FrameworkMethod method, Object target, Statement statement)
 	{
-		List<FrameworkMethod> afters =
-		    getTestClass().getAnnotatedMethods(After.class);
-
-		if (!junit3aftersAdded)
-		{
-			Method[] methods = getTestClass().getJavaClass().getMethods();
-			for (Method m : methods)
-			{
-                // Need to check for correct signature
-                // Need to ensure it isn't annotated as @Before already
-				if (m.getName().equals("tearDown"))
-				{
-					FrameworkMethod fm = new FrameworkMethod(m);
-					// Add at position zero, so it will be executed first,
-					// before all other @After methods
-					afters.add(0, fm);
-				}
-			}
-			junit3aftersAdded = true;
-		}
+		List<FrameworkMethod> afters = discovery().getAfters();
 
 		return afters.isEmpty()
 		    ? statement
@@ -166,6 +141,18 @@ public class MixRunner
 	}
 
 
+    // ----------------------------------------------------------
+	/**
+	 * Runs a test method, reporting its results to the recorder for the
+	 * current thread if it is being run by a {@link ParallelScheduler}.
+	 */
+	@Override
+	protected void runChild(FrameworkMethod method, RunNotifier notifier)
+	{
+		super.runChild(method, ParallelScheduler.notifierFor(notifier));
+	}
+
+
     // ----------------------------------------------------------
 	/**
 	 * Gathers all JUnit4 and JUnit3 test methods from this class and its
@@ -176,24 +163,26 @@ public class MixRunner
 	@Override
 	protected List<FrameworkMethod> getChildren()
 	{
-		List<FrameworkMethod> children = super.computeTestMethods();
+		// A copy, since the caller may filter or sort it.
+		return new ArrayList<FrameworkMethod>(discovery().getTestMethods());
+	}
 
-		if (!junit3methodsAdded)
+
+    // ----------------------------------------------------------
+	/**
+	 * Gets the JUnit3 and JUnit4 methods of the test class, which are only
+	 * discovered once per class.
+	 *
+	 * @return the methods of the test class
+	 */
+	protected TestMethodDiscovery discovery()
+	{
+		if (discovery == null)
 		{
-			Method[] methods = getTestClass().getJavaClass().getMethods();
-			for (Method method : methods)
-			{
-				FrameworkMethod fm = new FrameworkMethod(method);
-				if (method.getName().startsWith("test")
-				    && !children.contains(fm))
-				{
-					children.add(fm);
-				}
-			}
-			junit3methodsAdded = true;
+			discovery = TestMethodDiscovery.forTestClass(getTestClass());
 		}
 
-		return children;
+		return discovery;
 	}
 
 
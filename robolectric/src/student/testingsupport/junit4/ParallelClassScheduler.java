@@ -0,0 +1,928 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//-------------------------------------------------------------------------
+/**
+ * Runs a batch of test classes at the same time, each in its own
+ * {@link IsolatedClassLoader}.
+ *
+ * Classes run under {@link RobolectricMixRunner} share the static test
+ * database and Robolectric's shadow bindings, so they can only be run one at
+ * a time in a given class loader. This scheduler loads every test class,
+ * along with JUnit, Robolectric, and this library, afresh from the class
+ * path in a loader of its own, whose parent is the parent of the system
+ * class loader, so each class gets its own copy of all of that static state.
+ * The classes are then run with {@code JUnitCore} on a fixed pool of
+ * threads.
+ *
+ * The results are returned as plain {@link ClassResult} objects, in the
+ * order in which the classes were given, and refer to nothing that was
+ * loaded by the isolated loaders. A loader is still reachable after its
+ * class finishes, though, from anything that the class registered with the
+ * JVM as a whole: the JDBC drivers it loaded (such as the H2 driver behind
+ * the test database, which registers itself with {@code DriverManager}) and
+ * the shutdown hooks it added (such as the one with which Robolectric's
+ * instrumenting class loader saves its cache of instrumented classes). So
+ * once each class finishes, its loader is released, as described in
+ * {@link IsolatedClassLoader#release()}, which also means that the isolated
+ * loaders never write to Robolectric's class cache. A loader whose class
+ * left threads running is still not collected until they stop.
+ *
+ * The system streams are the one thing that cannot be copied, since there is
+ * only one {@code System.out} and {@code System.in} in the JVM. While the
+ * classes run, they are replaced by {@link ThreadLocalSystemIO}, which gives
+ * each class its own, so that the output that each class writes is captured
+ * along with its results and the input that it sets is only read by its own
+ * tests. The isolated loaders (and Robolectric's instrumenting loaders
+ * within them, as set up by {@link RobolectricMixRunner}) share this JVM's
+ * copy of {@link student.testingsupport.SystemIOUtilities} and of the stream
+ * classes that it checks for, so that when a class such as
+ * {@code student.TestCase} sets up its streams, it finds the per-thread ones
+ * already in place and uses them, instead of replacing the streams of the
+ * whole JVM.
+ *
+ * The scheduler can also be run from the command line:
+ * <pre>
+ * java student.testingsupport.junit4.ParallelClassScheduler
+ *     [-threads <i>n</i>] <i>class</i> ...
+ * </pre>
+ * which prints the output and a summary of the results of each class, in
+ * order, and exits with a non-zero status if any of them failed.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class ParallelClassScheduler
+{
+    //~ Instance/static variables .............................................
+
+    private static final String JUNIT_CORE = "org.junit.runner.JUnitCore";
+
+    private final int threads;
+    private final URL[] classPath;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a scheduler that runs test classes on one thread per available
+     * processor, loading them from the class path of this JVM.
+     */
+    public ParallelClassScheduler()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a scheduler that runs test classes on the specified number of
+     * threads, loading them from the class path of this JVM.
+     *
+     * @param threads the number of threads to use
+     */
+    public ParallelClassScheduler(int threads)
+    {
+        this(threads, systemClassPath());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a scheduler that runs test classes on the specified number of
+     * threads, loading them from the specified class path. The class path
+     * must include JUnit as well as the test classes themselves.
+     *
+     * @param threads the number of threads to use
+     * @param classPath the class path to load the test classes from
+     */
+    public ParallelClassScheduler(int threads, URL[] classPath)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException(
+                "threads must be at least 1, but was " + threads);
+        }
+
+        this.threads = threads;
+        this.classPath = classPath.clone();
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Runs the test classes with the specified names and waits for all of
+     * them to finish.
+     *
+     * @param classNames the names of the test classes to run
+     * @return the results of the classes, in the same order as their names
+     * @throws InterruptedException if the current thread is interrupted
+     *     while waiting for the classes to finish
+     */
+    public List<ClassResult> run(List<String> classNames)
+        throws InterruptedException
+    {
+        ExecutorService executor =
+            Executors.newFixedThreadPool(
+                threads, new DaemonThreadFactory("ParallelClassScheduler"));
+        List<Future<ClassResult>> futures =
+            new ArrayList<Future<ClassResult>>(classNames.size());
+
+        ThreadLocalSystemIO.install();
+
+        try
+        {
+            for (final String className : classNames)
+            {
+                futures.add(executor.submit(new Callable<ClassResult>() {
+                    public ClassResult call()
+                    {
+                        IsolatedClassLoader loader =
+                            new IsolatedClassLoader(classPath);
+
+                        try
+                        {
+                            return runClass(loader, className);
+                        }
+                        finally
+                        {
+                            loader.release();
+                        }
+                    }
+                }));
+            }
+
+            List<ClassResult> results =
+                new ArrayList<ClassResult>(classNames.size());
+
+            for (int i = 0; i < futures.size(); i++)
+            {
+                try
+                {
+                    results.add(futures.get(i).get());
+                }
+                catch (ExecutionException e)
+                {
+                    // runClass() catches everything it can, so this is
+                    // only reached for errors such as running out of memory.
+                    results.add(new ClassResult(
+                        classNames.get(i), e.getCause()));
+                }
+            }
+
+            return results;
+        }
+        finally
+        {
+            executor.shutdownNow();
+            ThreadLocalSystemIO.uninstall();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Runs the classes named on the command line and prints their results.
+     *
+     * @param args the command line arguments: optionally "-threads" and a
+     *     number, followed by the names of the test classes to run
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args)
+        throws InterruptedException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> classNames = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-threads") && i + 1 < args.length)
+            {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else
+            {
+                classNames.add(args[i]);
+            }
+        }
+
+        if (classNames.isEmpty())
+        {
+            System.err.println("usage: java "
+                + ParallelClassScheduler.class.getName()
+                + " [-threads n] class ...");
+            System.exit(2);
+        }
+
+        List<ClassResult> results =
+            new ParallelClassScheduler(threads).run(classNames);
+        boolean successful = true;
+
+        for (ClassResult result : results)
+        {
+            System.out.print(result.getOutput());
+            System.out.println(result);
+
+            for (FailureData failure : result.getFailures())
+            {
+                System.out.println(failure.getTrace());
+            }
+
+            successful &= result.wasSuccessful();
+        }
+
+        System.exit(successful ? 0 : 1);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Loads the specified test class in the specified class loader and runs
+     * it, capturing its output. {@link ThreadLocalSystemIO} must be
+     * installed.
+     *
+     * @param loader the class loader to load the class in, which must also
+     *     be able to load JUnit
+     * @param className the name of the test class
+     * @return the results of the class
+     */
+    static ClassResult runClass(ClassLoader loader, String className)
+    {
+        Thread thread = Thread.currentThread();
+        ClassLoader oldContextLoader = thread.getContextClassLoader();
+        ThreadLocalSystemIO.Capture capture =
+            ThreadLocalSystemIO.beginCapture();
+        ClassResult result;
+
+        thread.setContextClassLoader(loader);
+
+        try
+        {
+            Class<?> testClass = loader.loadClass(className);
+            Class<?> core = loader.loadClass(JUNIT_CORE);
+            Method runClasses = core.getMethod("runClasses", Class[].class);
+
+            Object junitResult = runClasses.invoke(
+                null, new Object[] { new Class<?>[] { testClass } });
+            result = new ClassResult(className, junitResult);
+        }
+        catch (InvocationTargetException e)
+        {
+            result = new ClassResult(className, e.getCause());
+        }
+        catch (Throwable e)
+        {
+            result = new ClassResult(className, e);
+        }
+        finally
+        {
+            ThreadLocalSystemIO.endCapture();
+            thread.setContextClassLoader(oldContextLoader);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream outputStream = new PrintStream(output, true);
+        capture.writeTo(outputStream, outputStream);
+        result.output = output.toString();
+
+        return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the class path of this JVM, as URLs.
+     *
+     * @return the entries of the {@code java.class.path} property
+     */
+    static URL[] systemClassPath()
+    {
+        return toURLs(System.getProperty("java.class.path", ""));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Converts a class path to URLs.
+     *
+     * @param path the entries of the class path, separated by the platform's
+     *     path separator
+     * @return the entries, as URLs
+     */
+    static URL[] toURLs(String path)
+    {
+        List<URL> urls = new ArrayList<URL>();
+
+        if (path != null)
+        {
+            for (String entry : path.split(File.pathSeparator))
+            {
+                if (entry.length() > 0)
+                {
+                    try
+                    {
+                        urls.add(new File(entry).toURI().toURL());
+                    }
+                    catch (MalformedURLException e)
+                    {
+                        throw new IllegalArgumentException(
+                            "Invalid class path entry: " + entry, e);
+                    }
+                }
+            }
+        }
+
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Deregisters the JDBC drivers that were loaded by the class loader that
+     * loaded this copy of this class. {@code DriverManager} only lets a
+     * class see, and deregister, the drivers that its own class loader can
+     * load, so {@link IsolatedClassLoader#release()} calls this on the copy
+     * of this class in the loader that is being released.
+     */
+    @SuppressWarnings("unused")
+    private static void deregisterDrivers()
+    {
+        ClassLoader loader = ParallelClassScheduler.class.getClassLoader();
+
+        for (Enumeration<Driver> drivers = DriverManager.getDrivers();
+            drivers.hasMoreElements(); )
+        {
+            Driver driver = drivers.nextElement();
+
+            if (driver.getClass().getClassLoader() == loader)
+            {
+                try
+                {
+                    DriverManager.deregisterDriver(driver);
+                }
+                catch (SQLException e)
+                {
+                    // Leave it registered.
+                }
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Calls a method that takes no arguments, by reflection.
+     *
+     * @param target the object to call the method on
+     * @param name the name of the method
+     * @return the result of the method
+     */
+    private static Object call(Object target, String name)
+    {
+        try
+        {
+            return target.getClass().getMethod(name).invoke(target);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new IllegalStateException(
+                "Could not call " + name + "()", e.getCause());
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(
+                "Could not call " + name + "()", e);
+        }
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A class loader that loads everything except the core Java classes from
+     * its own class path, rather than sharing the classes that have already
+     * been loaded by the system class loader. The only exceptions are the
+     * {@link ThreadLocalSystemIO#STREAM_CLASSES}, which are shared with this
+     * JVM so that the streams installed by {@code ThreadLocalSystemIO} are
+     * recognized.
+     */
+    public static class IsolatedClassLoader
+        extends URLClassLoader
+    {
+        // ----------------------------------------------------------
+        /**
+         * Creates a class loader that loads from the specified class path.
+         *
+         * @param classPath the class path to load from
+         */
+        public IsolatedClassLoader(URL[] classPath)
+        {
+            super(classPath, ClassLoader.getSystemClassLoader().getParent());
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Loads a class, from the class path of this loader unless it is one
+         * of the classes that are shared with this JVM.
+         *
+         * @param name the name of the class
+         * @param resolve whether to resolve the class
+         * @return the class
+         * @throws ClassNotFoundException if the class cannot be found
+         */
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException
+        {
+            for (Class<?> shared : ThreadLocalSystemIO.STREAM_CLASSES)
+            {
+                if (shared.getName().equals(name))
+                {
+                    return shared;
+                }
+            }
+
+            return super.loadClass(name, resolve);
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Adds an entry to the end of the class path of this loader.
+         *
+         * @param url the entry to add
+         */
+        @Override
+        public void addURL(URL url)
+        {
+            super.addURL(url);
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Lets go of everything outside this loader that refers to the
+         * classes it loaded, once they are no longer needed, so that the
+         * loader can be collected: deregisters the JDBC drivers it loaded,
+         * removes the shutdown hooks that were added from inside it, and
+         * closes it. Removing the hooks means that nothing that they would
+         * have done at exit is done, including saving Robolectric's cache of
+         * instrumented classes. The hooks can only be found where the JVM
+         * lets them be inspected by reflection; where it does not, they are
+         * left in place, along with the loader.
+         */
+        public void release()
+        {
+            try
+            {
+                Method deregister = loadClass(
+                    ParallelClassScheduler.class.getName())
+                    .getDeclaredMethod("deregisterDrivers");
+                deregister.setAccessible(true);
+                deregister.invoke(null);
+            }
+            catch (Throwable e)
+            {
+                // This library is not on the class path of the loader, so
+                // none of its drivers were registered through it.
+            }
+
+            removeShutdownHooks();
+
+            // URLClassLoader can only be closed from Java 7 on.
+            if (this instanceof Closeable)
+            {
+                try
+                {
+                    ((Closeable) this).close();
+                }
+                catch (IOException e)
+                {
+                    // Ignore it.
+                }
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Removes the shutdown hooks whose class was loaded by this loader
+         * (or one of its descendants, such as Robolectric's instrumenting
+         * loader), or that were created by a thread that was using it as
+         * its context class loader.
+         */
+        private void removeShutdownHooks()
+        {
+            List<Thread> owned = new ArrayList<Thread>();
+
+            try
+            {
+                Class<?> hooksClass =
+                    Class.forName("java.lang.ApplicationShutdownHooks");
+                Field field = hooksClass.getDeclaredField("hooks");
+                field.setAccessible(true);
+
+                synchronized (hooksClass)
+                {
+                    Map<?, ?> hooks = (Map<?, ?>) field.get(null);
+
+                    if (hooks != null)
+                    {
+                        for (Object hook : hooks.keySet())
+                        {
+                            Thread thread = (Thread) hook;
+
+                            if (owns(thread.getClass().getClassLoader())
+                                || owns(thread.getContextClassLoader()))
+                            {
+                                owned.add(thread);
+                            }
+                        }
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                // The hooks cannot be inspected in this JVM.
+                return;
+            }
+
+            for (Thread thread : owned)
+            {
+                try
+                {
+                    Runtime.getRuntime().removeShutdownHook(thread);
+                }
+                catch (IllegalStateException e)
+                {
+                    // The JVM is already shutting down.
+                    return;
+                }
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets whether a class loader is this one or one of its
+         * descendants.
+         *
+         * @param loader the class loader, which may be null
+         * @return true if this loader is the specified one or an ancestor of
+         *     it
+         */
+        private boolean owns(ClassLoader loader)
+        {
+            for (ClassLoader current = loader; current != null;
+                current = current.getParent())
+            {
+                if (current == this)
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * The results of running one test class.
+     */
+    public static class ClassResult
+    {
+        private String className;
+        private int runCount;
+        private int failureCount;
+        private int ignoreCount;
+        private long runTime;
+        private List<FailureData> failures;
+        private String error;
+        private String output = "";
+
+        // ----------------------------------------------------------
+        /**
+         * Copies the results of a class out of the JUnit {@code Result} that
+         * was returned by the class loader that ran it.
+         *
+         * @param className the name of the test class
+         * @param junitResult the {@code Result}
+         */
+        ClassResult(String className, Object junitResult)
+        {
+            this.className = className;
+
+            runCount = (Integer) call(junitResult, "getRunCount");
+            failureCount = (Integer) call(junitResult, "getFailureCount");
+            ignoreCount = (Integer) call(junitResult, "getIgnoreCount");
+            runTime = (Long) call(junitResult, "getRunTime");
+
+            List<?> junitFailures = (List<?>) call(junitResult, "getFailures");
+            List<FailureData> copies =
+                new ArrayList<FailureData>(junitFailures.size());
+
+            for (Object failure : junitFailures)
+            {
+                copies.add(new FailureData(
+                    (String) call(failure, "getTestHeader"),
+                    (String) call(failure, "getMessage"),
+                    (String) call(failure, "getTrace")));
+            }
+
+            failures = Collections.unmodifiableList(copies);
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Records a class that could not be run at all.
+         *
+         * @param className the name of the test class
+         * @param error the reason the class could not be run
+         */
+        ClassResult(String className, Throwable error)
+        {
+            this.className = className;
+            this.failures = Collections.emptyList();
+
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            this.error = trace.toString();
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Recreates the results of a class that were run elsewhere.
+         *
+         * @param className the name of the test class
+         * @param runCount the number of tests that were run
+         * @param failureCount the number of tests that failed
+         * @param ignoreCount the number of tests that were ignored
+         * @param runTime the time it took to run the class
+         * @param failures the failures of the tests
+         * @param error the reason the class could not be run, or null
+         * @param output the output of the class
+         */
+        ClassResult(String className, int runCount, int failureCount,
+            int ignoreCount, long runTime, List<FailureData> failures,
+            String error, String output)
+        {
+            this.className = className;
+            this.runCount = runCount;
+            this.failureCount = failureCount;
+            this.ignoreCount = ignoreCount;
+            this.runTime = runTime;
+            this.failures = Collections.unmodifiableList(
+                new ArrayList<FailureData>(failures));
+            this.error = error;
+            this.output = output;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the name of the test class.
+         *
+         * @return the name of the test class
+         */
+        public String getClassName()
+        {
+            return className;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the number of tests that were run.
+         *
+         * @return the number of tests that were run
+         */
+        public int getRunCount()
+        {
+            return runCount;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the number of tests that failed.
+         *
+         * @return the number of tests that failed
+         */
+        public int getFailureCount()
+        {
+            return failureCount;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the number of tests that were ignored.
+         *
+         * @return the number of tests that were ignored
+         */
+        public int getIgnoreCount()
+        {
+            return ignoreCount;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the time it took to run the class.
+         *
+         * @return the time, in milliseconds
+         */
+        public long getRunTime()
+        {
+            return runTime;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the failures of the tests in the class.
+         *
+         * @return the failures, in the order in which they occurred
+         */
+        public List<FailureData> getFailures()
+        {
+            return failures;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the reason the class could not be run at all, such as the
+         * class not being found.
+         *
+         * @return the stack trace of the error, or null if the class was run
+         */
+        public String getError()
+        {
+            return error;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets everything that the class wrote to {@code System.out} and
+         * {@code System.err}.
+         *
+         * @return the output of the class
+         */
+        public String getOutput()
+        {
+            return output;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets whether the class was run and all of its tests passed.
+         *
+         * @return true if the class was run and none of its tests failed
+         */
+        public boolean wasSuccessful()
+        {
+            return error == null && failureCount == 0;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public String toString()
+        {
+            if (error != null)
+            {
+                return className + ": could not be run\n" + error;
+            }
+            else
+            {
+                return className + ": " + runCount + " run, " + failureCount
+                    + " failed, " + ignoreCount + " ignored (" + runTime
+                    + " ms)";
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A copy of a JUnit {@code Failure}.
+     */
+    public static class FailureData
+    {
+        private String testHeader;
+        private String message;
+        private String trace;
+
+        // ----------------------------------------------------------
+        FailureData(String testHeader, String message, String trace)
+        {
+            this.testHeader = testHeader;
+            this.message = message;
+            this.trace = trace;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the description of the test that failed.
+         *
+         * @return the description of the test
+         */
+        public String getTestHeader()
+        {
+            return testHeader;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the message of the exception that caused the failure.
+         *
+         * @return the message, which may be null
+         */
+        public String getMessage()
+        {
+            return message;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets the stack trace of the exception that caused the failure.
+         *
+         * @return the stack trace
+         */
+        public String getTrace()
+        {
+            return trace;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public String toString()
+        {
+            return testHeader + ": " + message;
+        }
+    }
+}
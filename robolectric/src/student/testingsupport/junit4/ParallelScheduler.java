@@ -0,0 +1,222 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.model.RunnerScheduler;
+
+//-------------------------------------------------------------------------
+/**
+ * A {@link RunnerScheduler} that runs the test methods of a class on a
+ * bounded pool of threads, while still reporting their results one at a
+ * time, in the order in which the methods were scheduled.
+ *
+ * Each test method runs with its own {@link ThreadLocalSystemIO capture} of
+ * the system streams and reports to a {@link RecordingRunNotifier}. Once all
+ * of the methods have been scheduled, {@link #finished()} waits for each in
+ * turn, copies its output to the real {@code System.out} and
+ * {@code System.err}, and replays its events to the real notifier. Runners
+ * must pass the notifier for each test method through
+ * {@link #notifierFor(RunNotifier)} for this to work.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class ParallelScheduler
+    implements RunnerScheduler
+{
+    //~ Instance/static variables .............................................
+
+    // The recorder for the test method running on the current thread.
+    private static final ThreadLocal<RecordingRunNotifier> currentRecorder =
+        new ThreadLocal<RecordingRunNotifier>();
+
+    private final int threads;
+    private ExecutorService executor;
+    private List<Scheduled> scheduled = new ArrayList<Scheduled>();
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a scheduler that runs test methods on the specified number of
+     * threads.
+     *
+     * @param threads the number of threads to use
+     */
+    public ParallelScheduler(int threads)
+    {
+        this.threads = threads;
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the notifier that a test method should report to. On a thread
+     * started by this scheduler, this is the recorder for the test method
+     * being run, which will later replay its events to {@code notifier};
+     * elsewhere, it is {@code notifier} itself.
+     *
+     * @param notifier the notifier passed to the runner
+     * @return the notifier to report to
+     */
+    public static RunNotifier notifierFor(RunNotifier notifier)
+    {
+        RecordingRunNotifier recorder = currentRecorder.get();
+
+        if (recorder == null)
+        {
+            return notifier;
+        }
+        else
+        {
+            recorder.setTarget(notifier);
+            return recorder;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    public void schedule(final Runnable childStatement)
+    {
+        if (executor == null)
+        {
+            ThreadLocalSystemIO.install();
+            executor = Executors.newFixedThreadPool(
+                threads, new DaemonThreadFactory("MixRunner"));
+        }
+
+        final Scheduled task = new Scheduled();
+
+        task.future = executor.submit(new Runnable() {
+            public void run()
+            {
+                currentRecorder.set(task.recorder);
+                task.capture = ThreadLocalSystemIO.beginCapture();
+
+                try
+                {
+                    childStatement.run();
+                }
+                finally
+                {
+                    ThreadLocalSystemIO.endCapture();
+                    currentRecorder.remove();
+                }
+            }
+        });
+
+        scheduled.add(task);
+    }
+
+
+    // ----------------------------------------------------------
+    public void finished()
+    {
+        if (executor == null)
+        {
+            return;
+        }
+
+        Throwable error = null;
+
+        try
+        {
+            for (Scheduled task : scheduled)
+            {
+                try
+                {
+                    task.future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (error == null)
+                    {
+                        error = e.getCause();
+                    }
+                }
+
+                if (task.capture != null)
+                {
+                    task.capture.writeTo(ThreadLocalSystemIO.getOriginalOut(),
+                        ThreadLocalSystemIO.getOriginalErr());
+                }
+
+                RunNotifier target = task.recorder.getTarget();
+
+                if (target != null)
+                {
+                    task.recorder.replayTo(target);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            executor.shutdown();
+            executor = null;
+            scheduled.clear();
+            ThreadLocalSystemIO.uninstall();
+        }
+
+        if (error instanceof RuntimeException)
+        {
+            throw (RuntimeException) error;
+        }
+        else if (error instanceof Error)
+        {
+            throw (Error) error;
+        }
+        else if (error != null)
+        {
+            throw new RuntimeException(error);
+        }
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A test method that has been scheduled.
+     */
+    private static class Scheduled
+    {
+        private RecordingRunNotifier recorder = new RecordingRunNotifier();
+        private volatile ThreadLocalSystemIO.Capture capture;
+        private Future<?> future;
+    }
+}
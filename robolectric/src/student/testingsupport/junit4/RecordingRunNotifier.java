@@ -0,0 +1,189 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+
+//-------------------------------------------------------------------------
+/**
+ * A {@link RunNotifier} that records the events fired for a test instead of
+ * passing them on to any listeners, so that they can be
+ * {@link #replayTo(RunNotifier) replayed} later. This lets tests that run on
+ * other threads be reported in a fixed order, and only ever from one thread,
+ * since most result formatters are not thread-safe.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class RecordingRunNotifier
+    extends RunNotifier
+{
+    //~ Instance/static variables .............................................
+
+    private List<Event> events = new ArrayList<Event>();
+    private RunNotifier target;
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the notifier that the recorded events are meant for.
+     *
+     * @return the notifier that the events are meant for
+     */
+    public synchronized RunNotifier getTarget()
+    {
+        return target;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Sets the notifier that the recorded events are meant for.
+     *
+     * @param target the notifier that the events are meant for
+     */
+    public synchronized void setTarget(RunNotifier target)
+    {
+        this.target = target;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void fireTestStarted(final Description description)
+    {
+        record(new Event() {
+            public void replayTo(RunNotifier notifier)
+            {
+                notifier.fireTestStarted(description);
+            }
+        });
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void fireTestFailure(final Failure failure)
+    {
+        record(new Event() {
+            public void replayTo(RunNotifier notifier)
+            {
+                notifier.fireTestFailure(failure);
+            }
+        });
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void fireTestAssumptionFailed(final Failure failure)
+    {
+        record(new Event() {
+            public void replayTo(RunNotifier notifier)
+            {
+                notifier.fireTestAssumptionFailed(failure);
+            }
+        });
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void fireTestIgnored(final Description description)
+    {
+        record(new Event() {
+            public void replayTo(RunNotifier notifier)
+            {
+                notifier.fireTestIgnored(description);
+            }
+        });
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void fireTestFinished(final Description description)
+    {
+        record(new Event() {
+            public void replayTo(RunNotifier notifier)
+            {
+                notifier.fireTestFinished(description);
+            }
+        });
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Fires all of the recorded events on another notifier, in the order in
+     * which they were recorded, and then forgets them.
+     *
+     * @param notifier the notifier to fire the events on
+     */
+    public void replayTo(RunNotifier notifier)
+    {
+        List<Event> recorded;
+
+        synchronized (this)
+        {
+            recorded = events;
+            events = new ArrayList<Event>();
+        }
+
+        for (Event event : recorded)
+        {
+            event.replayTo(notifier);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private synchronized void record(Event event)
+    {
+        events.add(event);
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A recorded event.
+     */
+    private interface Event
+    {
+        // ----------------------------------------------------------
+        /**
+         * Fires this event on a notifier.
+         *
+         * @param notifier the notifier
+         */
+        void replayTo(RunNotifier notifier);
+    }
+}
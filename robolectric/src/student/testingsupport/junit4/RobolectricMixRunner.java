@@ -21,7 +21,6 @@
 
 package student.testingsupport.junit4;
 
-import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 import android.media.ExifInterface;
 import android.net.Uri;
@@ -35,9 +34,10 @@ import com.xtremelabs.robolectric.util.H2Map;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import org.junit.After;
-import org.junit.Before;
 import org.junit.Rule;
 import org.junit.internal.runners.model.MultipleFailureException;
 import org.junit.internal.runners.model.ReflectiveCallable;
@@ -79,11 +79,59 @@ public class RobolectricMixRunner extends RobolectricTestRunner
 {
     //~ Instance/static variables .............................................
 
-    private List<FrameworkMethod> befores = null;
-    private boolean junit3methodsAdded = false;
-    private boolean junit3aftersAdded = false;
+    private TestMethodDiscovery discovery;
 
-    private static SQLiteDatabase database;
+    // The rows for the image files found by the last scan of the working
+    // directory.
+    private static File scannedDirectory;
+    private static long scannedModified;
+    private static long scannedAt;
+    private static List<Object[]> scannedImages;
+
+    // Supplies the rows of the media_images table from the image files in
+    // the working directory.
+    private static final DatabaseTemplate.Seed MEDIA_IMAGES =
+        new DatabaseTemplate.Seed() {
+            public List<Object[]> getRows()
+            {
+                return scanImages(new File("."));
+            }
+        };
+
+    // How far apart, in milliseconds, two modification times of a directory
+    // must be to be sure of telling them apart.
+    private static final long MODIFIED_RESOLUTION = 2000;
+
+    // The shadow classes that the student library adds to Robolectric's.
+    private static final Class<?>[] SHADOW_CLASSES = {
+        ShadowActivity.class,
+        ShadowMapActivity.class,
+        ShadowView.class,
+        ShadowViewGroup.class,
+        ShadowContentResolver.class,
+        ShadowExifInterface.class,
+        ShadowMapView.class,
+        ShadowOverlay.class
+    };
+
+    // Robolectric's own property, naming the jar where it caches the
+    // classes it has instrumented.
+    private static final String CACHED_CLASSES_PATH =
+        "cached.robolectric.classes.path";
+
+    // The directory in which the instrumented class caches are kept, if
+    // they are to be shared.
+    private static final String CLASS_CACHE_DIR =
+        RobolectricMixRunner.class.getName() + ".classCacheDir";
+
+    // The class that Robolectric's instrumenting class loader extends.
+    private static final String INSTRUMENTING_LOADER = "javassist.Loader";
+
+    static
+    {
+        configureClassCache();
+        shareStreamClasses();
+    }
 
 
     //~ Constructors ..........................................................
@@ -107,18 +155,14 @@ public class RobolectricMixRunner extends RobolectricTestRunner
     // ----------------------------------------------------------
     /**
      * Gets the single instance of the SQLiteDatabase to be used during testing,
-     * creating it if necessary.
+     * creating it if necessary. Its tables are the ones registered with
+     * {@link DatabaseTemplate}.
      *
      * @return the SQLiteDatabase to be used during testing
      */
     public static SQLiteDatabase getDatabase()
     {
-        if (database == null)
-        {
-            database = SQLiteDatabase.openDatabase("content", null, 0);
-        }
-
-        return database;
+        return DatabaseTemplate.getDatabase();
     }
 
 
@@ -139,75 +183,225 @@ public class RobolectricMixRunner extends RobolectricTestRunner
     /**
      * Build the databases used to maintain things like the media library.
      *
-     * TODO Make this more general. Perhaps allow the instructor test cases
-     * themselves to set up mock databases for testing.
+     * The tables are only built from scratch the first time, or when the
+     * image files in the working directory have changed. Before every other
+     * test, they are just restored from templates that were taken when they
+     * were built; see {@link DatabaseTemplate}. Test cases can add tables of
+     * their own by registering them with {@code DatabaseTemplate}.
      */
     protected void buildDatabases()
     {
         DatabaseConfig.setDatabaseMap(new H2Map());
 
-        if (database != null)
-        {
-            database.close();
-            database = null;
-        }
+        DatabaseTemplate.registerTable("media_images", "_id varchar(255), "
+            + "mime_type varchar(255), _data varchar(255)", MEDIA_IMAGES);
+        DatabaseTemplate.restore();
+    }
 
-        SQLiteDatabase db = getDatabase();
 
-        db.execSQL("create table media_images (_id varchar(255), "
-            + "mime_type varchar(255), _data varchar(255))");
+    // ----------------------------------------------------------
+    /**
+     * Gets the rows of the media_images table for the image files in the
+     * specified directory. The directory is only listed again if it has been
+     * modified since the last time.
+     *
+     * @param directory the directory to scan
+     * @return the rows, which are the same list as the last time if the
+     *     directory has not changed
+     */
+    private static synchronized List<Object[]> scanImages(File directory)
+    {
+        File absolute = directory.getAbsoluteFile();
+        long modified = absolute.lastModified();
+
+        // Modification times may only be accurate to the second or two, so
+        // a directory that was modified just before it was listed might have
+        // changed again since, without its modification time changing.
+        if (scannedImages != null
+            && absolute.equals(scannedDirectory)
+            && modified == scannedModified
+            && modified + MODIFIED_RESOLUTION < scannedAt)
+        {
+            return scannedImages;
+        }
 
-        File[] files = new File(".").listFiles();
+        long now = System.currentTimeMillis();
+        File[] files = absolute.listFiles();
+        List<Object[]> images = new ArrayList<Object[]>();
         int id = 1;
 
-        for (File file : files)
+        if (files != null)
         {
-            String name = file.getName();
-            String mimeType = null;
-
-            // FIXME generalize
-            if (name.endsWith(".jpg") || name.endsWith(".jpeg")
-                || name.endsWith(".jpe"))
+            for (File file : files)
             {
-                mimeType = "image/jpeg";
+                String name = file.getName();
+                String mimeType = null;
+
+                // FIXME generalize
+                if (name.endsWith(".jpg") || name.endsWith(".jpeg")
+                    || name.endsWith(".jpe"))
+                {
+                    mimeType = "image/jpeg";
+                }
+                else if (name.endsWith(".gif"))
+                {
+                    mimeType = "image/gif";
+                }
+                else if (name.endsWith(".png"))
+                {
+                    mimeType = "image/png";
+                }
+
+                if (mimeType != null)
+                {
+                    // FIXME other columns
+                    images.add(new Object[] { id++, mimeType, name });
+                }
             }
-            else if (name.endsWith(".gif"))
+        }
+
+        scannedDirectory = absolute;
+        scannedModified = modified;
+        scannedAt = now;
+        scannedImages = Collections.unmodifiableList(images);
+
+        return scannedImages;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    protected void bindShadowClasses()
+    {
+        for (Class<?> shadowClass : SHADOW_CLASSES)
+        {
+            Robolectric.bindShadowClass(shadowClass);
+        }
+
+        buildDatabases();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Points Robolectric's cache of instrumented classes at an
+     * {@link InstrumentedClassCache} that is shared by every run that uses
+     * the same jars and shadow classes, so that the Android classes only
+     * have to be instrumented once, rather than once per working directory.
+     * This must happen before Robolectric creates its class loader, so it is
+     * done when this class is initialized.
+     *
+     * Every later run trusts the classes in the cache, so it is only shared
+     * when the
+     * {@code student.testingsupport.junit4.RobolectricMixRunner.classCacheDir}
+     * system property names a directory to keep it in, which the code under
+     * test must not be able to write to. The cache is kept in a directory
+     * inside that one, named after a fingerprint of the names, sizes, and
+     * modification times of the jars on the class path and the names of the
+     * shadow classes. If the property is not set, or the
+     * {@code cached.robolectric.classes.path} property has already been set,
+     * Robolectric is left to use its own cache.
+     */
+    private static void configureClassCache()
+    {
+        String classCacheDir = System.getProperty(CLASS_CACHE_DIR);
+
+        if (classCacheDir == null
+            || System.getProperty(CACHED_CLASSES_PATH) != null)
+        {
+            return;
+        }
+
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            // Only jars are included, since the classes that Robolectric
+            // instruments come from them, and the directories that hold the
+            // classes under test change with every submission.
+            for (String entry : System.getProperty("java.class.path", "")
+                .split(File.pathSeparator))
             {
-                mimeType = "image/gif";
+                File file = new File(entry);
+
+                if (file.isFile())
+                {
+                    digest.update((file.getName() + "\0" + file.length()
+                        + "\0" + file.lastModified() + "\n").getBytes("UTF-8"));
+                }
             }
-            else if (name.endsWith(".png"))
+
+            for (Class<?> shadowClass : SHADOW_CLASSES)
             {
-                mimeType = "image/png";
+                digest.update((shadowClass.getName() + "\n").getBytes("UTF-8"));
             }
 
-            if (mimeType != null)
-            {
-                // FIXME other columns
-                ContentValues values = new ContentValues();
-                values.put("_id", id++);
-                values.put("mime_type", mimeType);
-                values.put("_data", name);
+            StringBuilder fingerprint = new StringBuilder();
 
-                db.insert("media_images", null, values);
+            for (byte b : digest.digest())
+            {
+                fingerprint.append(Integer.toHexString((b & 0xff) | 0x100)
+                    .substring(1));
             }
+
+            File copy = InstrumentedClassCache.open(
+                new File(classCacheDir, fingerprint.toString()));
+            System.setProperty(CACHED_CLASSES_PATH, copy.getPath());
+        }
+        catch (Exception e)
+        {
+            // Leave Robolectric to use its default cache.
         }
     }
 
 
     // ----------------------------------------------------------
-    @Override
-    protected void bindShadowClasses()
+    /**
+     * Has Robolectric's instrumenting class loader leave the
+     * {@link ThreadLocalSystemIO#STREAM_CLASSES} to the loader of this class,
+     * instead of loading copies of its own. Otherwise, the copy of
+     * {@code SystemIOUtilities} that the test classes use does not recognize
+     * the per-thread streams installed by {@code ThreadLocalSystemIO} when
+     * tests are run in parallel, and replaces the streams of the whole JVM.
+     *
+     * This creates the instrumenting loader, so it must be done after
+     * {@link #configureClassCache()}. The method that creates it is not
+     * public, so this may not work with every version of Robolectric. It is
+     * skipped in the copy of this class that Robolectric loads inside its
+     * own loader.
+     */
+    private static void shareStreamClasses()
     {
-        Robolectric.bindShadowClass(ShadowActivity.class);
-        Robolectric.bindShadowClass(ShadowMapActivity.class);
-        Robolectric.bindShadowClass(ShadowView.class);
-        Robolectric.bindShadowClass(ShadowViewGroup.class);
-        Robolectric.bindShadowClass(ShadowContentResolver.class);
-        Robolectric.bindShadowClass(ShadowExifInterface.class);
-        Robolectric.bindShadowClass(ShadowMapView.class);
-        Robolectric.bindShadowClass(ShadowOverlay.class);
+        for (Class<?> loaderClass =
+                 RobolectricMixRunner.class.getClassLoader().getClass();
+             loaderClass != null;
+             loaderClass = loaderClass.getSuperclass())
+        {
+            if (loaderClass.getName().equals(INSTRUMENTING_LOADER))
+            {
+                return;
+            }
+        }
 
-        buildDatabases();
+        try
+        {
+            Method getDefaultLoader = RobolectricTestRunner.class
+                .getDeclaredMethod("getDefaultLoader");
+            getDefaultLoader.setAccessible(true);
+            Object loader = getDefaultLoader.invoke(null);
+
+            Method delegateLoadingOf = loader.getClass()
+                .getMethod("delegateLoadingOf", String.class);
+
+            for (Class<?> shared : ThreadLocalSystemIO.STREAM_CLASSES)
+            {
+                delegateLoadingOf.invoke(loader, shared.getName());
+            }
+        }
+        catch (Exception e)
+        {
+            // Leave Robolectric to load its own copies.
+        }
     }
 
 
@@ -256,28 +450,7 @@ public class RobolectricMixRunner extends RobolectricTestRunner
     protected Statement withBefores(
         FrameworkMethod method, Object target, Statement statement)
     {
-        List<FrameworkMethod> annotatedBefores =
-            getTestClass().getAnnotatedMethods(Before.class);
-
-        if (befores != annotatedBefores)
-        {
-            befores = annotatedBefores;
-            // FIXME: This code only finds setUp() if it is public,
-            // when the inherited method is protected.
-            Method[] methods = getTestClass().getJavaClass().getMethods();
-            for (Method m : methods)
-            {
-                // Need to check for correct signature
-                // Need to ensure it isn't annotated as @Before already
-                if (m.getName().equals("setUp"))
-                {
-                    FrameworkMethod fm = new FrameworkMethod(m);
-                    // add at the end, so it will be executed last, after
-                    // all other @Before methods
-                    befores.add(fm);
-                }
-            }
-        }
+        List<FrameworkMethod> befores = discovery().getBefores();
 
         return befores.isEmpty()
             ? statement
@@ -300,26 +473,7 @@ public class RobolectricMixRunner extends RobolectricTestRunner
     protected Statement withAfters(
         FrameworkMethod method, Object target, Statement statement)
     {
-        List<FrameworkMethod> afters =
-            getTestClass().getAnnotatedMethods(After.class);
-
-        if (!junit3aftersAdded)
-        {
-            Method[] methods = getTestClass().getJavaClass().getMethods();
-            for (Method m : methods)
-            {
-                // Need to check for correct signature
-                // Need to ensure it isn't annotated as @Before already
-                if (m.getName().equals("tearDown"))
-                {
-                    FrameworkMethod fm = new FrameworkMethod(m);
-                    // Add at position zero, so it will be executed first,
-                    // before all other @After methods
-                    afters.add(0, fm);
-                }
-            }
-            junit3aftersAdded = true;
-        }
+        List<FrameworkMethod> afters = discovery().getAfters();
 
         return afters.isEmpty()
             ? statement
@@ -337,24 +491,26 @@ public class RobolectricMixRunner extends RobolectricTestRunner
     @Override
     protected List<FrameworkMethod> getChildren()
     {
-        List<FrameworkMethod> children = super.computeTestMethods();
+        // A copy, since the caller may filter or sort it.
+        return new ArrayList<FrameworkMethod>(discovery().getTestMethods());
+    }
+
 
-        if (!junit3methodsAdded)
+    // ----------------------------------------------------------
+    /**
+     * Gets the JUnit3 and JUnit4 methods of the test class, which are only
+     * discovered once per class.
+     *
+     * @return the methods of the test class
+     */
+    protected TestMethodDiscovery discovery()
+    {
+        if (discovery == null)
         {
-            Method[] methods = getTestClass().getJavaClass().getMethods();
-            for (Method method : methods)
-            {
-                FrameworkMethod fm = new FrameworkMethod(method);
-                if (method.getName().startsWith("test")
-                    && !children.contains(fm))
-                {
-                    children.add(fm);
-                }
-            }
-            junit3methodsAdded = true;
+            discovery = TestMethodDiscovery.forTestClass(getTestClass());
         }
 
-        return children;
+        return discovery;
     }
 
 
@@ -498,4 +654,5 @@ public class RobolectricMixRunner extends RobolectricTestRunner
         }
         return result;
     }
+
 }
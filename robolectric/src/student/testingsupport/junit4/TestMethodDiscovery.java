@@ -0,0 +1,221 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.TestClass;
+
+//-------------------------------------------------------------------------
+/**
+ * The JUnit3 and JUnit4 methods of a test class that {@link MixRunner} and
+ * {@link RobolectricMixRunner} run: the {@code @Before} methods followed by
+ * any JUnit3 {@code setUp()} method, any JUnit3 {@code tearDown()} method
+ * followed by the {@code @After} methods, and the {@code @Test} methods
+ * followed by any other methods whose names start with "test".
+ *
+ * The methods are discovered only once per test class, no matter how many
+ * runners are created for it or how many tests they run, and a method that
+ * is found both ways (for example, a {@code setUp()} method that is also
+ * annotated with {@code @Before}) is only included once.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class TestMethodDiscovery
+{
+    //~ Instance/static variables .............................................
+
+    // Weak values as well as weak keys, since the methods refer back to the
+    // class; the runners hold on to the discoveries they are using.
+    private static final
+        Map<Class<?>, WeakReference<TestMethodDiscovery>> cache =
+            new WeakHashMap<Class<?>, WeakReference<TestMethodDiscovery>>();
+
+    private List<FrameworkMethod> befores;
+    private List<FrameworkMethod> afters;
+    private List<FrameworkMethod> testMethods;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Discovers the methods of the specified test class.
+     *
+     * @param testClass the test class
+     */
+    private TestMethodDiscovery(TestClass testClass)
+    {
+        // FIXME: This code only finds setUp() and tearDown() if they are
+        // public, when the inherited methods are protected.
+        Method[] methods = testClass.getJavaClass().getMethods();
+
+        List<FrameworkMethod> setUps = new ArrayList<FrameworkMethod>();
+        List<FrameworkMethod> tearDowns = new ArrayList<FrameworkMethod>();
+        List<FrameworkMethod> junit3Tests = new ArrayList<FrameworkMethod>();
+
+        for (Method method : methods)
+        {
+            String name = method.getName();
+
+            if (name.equals("setUp"))
+            {
+                setUps.add(new FrameworkMethod(method));
+            }
+            else if (name.equals("tearDown"))
+            {
+                tearDowns.add(new FrameworkMethod(method));
+            }
+            else if (name.startsWith("test"))
+            {
+                junit3Tests.add(new FrameworkMethod(method));
+            }
+        }
+
+        // setUp() runs last, after all other @Before methods, and
+        // tearDown() runs first, before all other @After methods. The
+        // annotated methods are copied rather than added to, since TestClass
+        // hands out its own lists.
+        befores = Collections.unmodifiableList(union(
+            testClass.getAnnotatedMethods(Before.class), setUps));
+        afters = Collections.unmodifiableList(union(
+            tearDowns, testClass.getAnnotatedMethods(After.class)));
+        testMethods = Collections.unmodifiableList(union(
+            testClass.getAnnotatedMethods(Test.class), junit3Tests));
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the methods of the specified test class, discovering them if this
+     * is the first time they have been requested.
+     *
+     * @param testClass the test class
+     * @return the methods of the test class
+     */
+    public static TestMethodDiscovery forTestClass(TestClass testClass)
+    {
+        synchronized (cache)
+        {
+            WeakReference<TestMethodDiscovery> ref =
+                cache.get(testClass.getJavaClass());
+            TestMethodDiscovery discovery = (ref == null) ? null : ref.get();
+
+            if (discovery == null)
+            {
+                discovery = new TestMethodDiscovery(testClass);
+                cache.put(testClass.getJavaClass(),
+                    new WeakReference<TestMethodDiscovery>(discovery));
+            }
+
+            return discovery;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the methods to run before each test, in order.
+     *
+     * @return the {@code @Before} methods followed by {@code setUp()}
+     */
+    public List<FrameworkMethod> getBefores()
+    {
+        return befores;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the methods to run after each test, in order.
+     *
+     * @return {@code tearDown()} followed by the {@code @After} methods
+     */
+    public List<FrameworkMethod> getAfters()
+    {
+        return afters;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the test methods, in order.
+     *
+     * @return the {@code @Test} methods followed by the other methods whose
+     *     names start with "test"
+     */
+    public List<FrameworkMethod> getTestMethods()
+    {
+        return testMethods;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Concatenates two lists of methods, leaving out any method that has
+     * already been included.
+     *
+     * @param first the methods to include first
+     * @param second the methods to include after them
+     * @return the combined list
+     */
+    private static List<FrameworkMethod> union(
+        List<FrameworkMethod> first, List<FrameworkMethod> second)
+    {
+        List<FrameworkMethod> result =
+            new ArrayList<FrameworkMethod>(first.size() + second.size());
+        Set<FrameworkMethod> seen = new HashSet<FrameworkMethod>();
+
+        for (FrameworkMethod method : first)
+        {
+            if (seen.add(method))
+            {
+                result.add(method);
+            }
+        }
+
+        for (FrameworkMethod method : second)
+        {
+            if (seen.add(method))
+            {
+                result.add(method);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,556 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+//-------------------------------------------------------------------------
+/**
+ * A long-running JVM that runs suites of test classes on request, so that
+ * each suite does not have to pay for starting a JVM and loading JUnit and
+ * Robolectric.
+ *
+ * The worker reads jobs from its standard input and writes their results
+ * to its standard output, so only the process that started it can talk to
+ * it. Anything else that would be written to standard output, by the tests
+ * or otherwise, goes to standard error instead, and the tests see an empty
+ * standard input. Each job is run in a fresh
+ * {@link ParallelClassScheduler.IsolatedClassLoader}, so that it gets its
+ * own copy of the static state of Robolectric, this library, and the code
+ * under test, and the loader for the next job is created and warmed up (by
+ * loading JUnit, Robolectric, and {@link RobolectricMixRunner}, and creating
+ * Robolectric's instrumenting class loader) in the background while the
+ * worker is idle. Once a job finishes, its loader is released, as described
+ * in {@link ParallelClassScheduler.IsolatedClassLoader#release()}, and the
+ * worker puts back the state that belongs to the JVM as a whole: the system
+ * properties, the default locale and time zone, and the system streams.
+ * Threads that a job leaves running are not stopped, and keep its loader
+ * from being collected, so {@link TestWorkerPool} replaces each worker after
+ * a number of jobs.
+ *
+ * The worker is started with:
+ * <pre>
+ * java -cp <i>library class path</i> student.testingsupport.junit4.TestWorker
+ * </pre>
+ * Once the worker is ready to accept jobs, it prints {@code ready} on a line
+ * by itself to its standard output. It exits when it is asked to quit or
+ * when its standard input is closed, so a worker does not outlive the
+ * process that started it. {@link TestWorkerPool} starts and talks to a
+ * pool of workers.
+ *
+ * The protocol is line-based, in UTF-8, with the fields of each line
+ * separated by tabs (escaped as described in {@link #escape(String)}). A
+ * job is a line of the form
+ * <pre>
+ * run <i>nonce</i> <i>class path</i> <i>class</i> ...
+ * </pre>
+ * where the nonce is a string without tabs that the pool chooses at random
+ * for each job, and the class path holds the entries (separated by the
+ * platform's path separator) that contain the classes under test, which are
+ * added to the library class path. The worker replies with, for each class,
+ * in order:
+ * <pre>
+ * <i>nonce</i> class <i>name</i> <i>run</i> <i>failed</i> <i>ignored</i> <i>time</i> <i>error</i> <i>output</i>
+ * <i>nonce</i> failure <i>header</i> <i>message</i> <i>trace</i>
+ * ...
+ * </pre>
+ * followed by a line holding the nonce and {@code done}. The reply starts
+ * with an empty line. A line holding just {@code quit} stops the worker.
+ *
+ * Code under test can still write to the standard output of the worker
+ * directly, through {@code FileDescriptor.out}. The nonce keeps it from
+ * forging results, since it never sees the job line, and the pool ignores
+ * every line that does not start with the nonce. The empty line ends any
+ * partial line that was written before the reply, so that the first line of
+ * the reply is not lost.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class TestWorker
+{
+    //~ Instance/static variables .............................................
+
+    static final String READY = "ready";
+    static final String RUN = "run";
+    static final String QUIT = "quit";
+    static final String CLASS = "class";
+    static final String FAILURE = "failure";
+    static final String DONE = "done";
+
+    // The classes that are loaded into each class loader before it is used,
+    // since every job needs them.
+    private static final String[] WARM_CLASSES = {
+        "org.junit.runner.JUnitCore",
+        "com.xtremelabs.robolectric.RobolectricTestRunner",
+        "student.testingsupport.junit4.RobolectricMixRunner",
+        "student.TestCase"
+    };
+
+    private final URL[] classPath;
+    private final ExecutorService warmer;
+    private Future<ParallelClassScheduler.IsolatedClassLoader> nextLoader;
+
+    // The state of the JVM when the worker started, which is put back after
+    // each job.
+    private final Properties properties;
+    private final Locale locale;
+    private final TimeZone timeZone;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final InputStream in;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a worker that loads the library from the specified class path,
+     * and starts warming up the class loader for its first job.
+     *
+     * @param classPath the class path of the library, including JUnit and
+     *     Robolectric
+     */
+    public TestWorker(URL[] classPath)
+    {
+        this.classPath = classPath.clone();
+
+        properties = (Properties) System.getProperties().clone();
+        locale = Locale.getDefault();
+        timeZone = TimeZone.getDefault();
+        out = System.out;
+        err = System.err;
+        in = System.in;
+
+        warmer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "TestWorker-warmer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        warmNextLoader();
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Starts a worker that reads jobs from standard input and writes their
+     * results to standard output.
+     *
+     * @param args the command line arguments, which are ignored
+     */
+    public static void main(String[] args)
+    {
+        // Keep the real standard input and output for the jobs, and give
+        // everything else an empty input and standard error, so that
+        // nothing else can read a job or write into the results.
+        InputStream jobs = System.in;
+        OutputStream results = System.out;
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+        System.setOut(System.err);
+
+        try
+        {
+            new TestWorker(ParallelClassScheduler.systemClassPath())
+                .serve(jobs, results);
+        }
+        catch (IOException e)
+        {
+            // The pool went away.
+        }
+
+        System.exit(0);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Runs the jobs read from the specified stream one at a time, until one
+     * of them asks the worker to quit or the stream ends.
+     *
+     * @param input the stream to read jobs from
+     * @param output the stream to write results to
+     * @throws IOException if either stream fails
+     */
+    public void serve(InputStream input, OutputStream output)
+        throws IOException
+    {
+        try
+        {
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(input, "UTF-8"));
+            Writer writer = new BufferedWriter(
+                new OutputStreamWriter(output, "UTF-8"));
+
+            writer.write(READY);
+            writer.write('\n');
+            writer.flush();
+
+            handle(reader, writer);
+        }
+        finally
+        {
+            warmer.shutdownNow();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Runs the specified test classes in a fresh class loader, and then puts
+     * back the state of the JVM.
+     *
+     * @param extraClassPath the class path entries that hold the classes
+     *     under test
+     * @param classNames the names of the test classes to run
+     * @return the results of the classes, in order
+     */
+    public List<ParallelClassScheduler.ClassResult> runJob(
+        URL[] extraClassPath, List<String> classNames)
+    {
+        ParallelClassScheduler.IsolatedClassLoader loader = takeLoader();
+        List<ParallelClassScheduler.ClassResult> results =
+            new ArrayList<ParallelClassScheduler.ClassResult>();
+
+        for (URL url : extraClassPath)
+        {
+            loader.addURL(url);
+        }
+
+        ThreadLocalSystemIO.install();
+
+        try
+        {
+            for (String className : classNames)
+            {
+                results.add(
+                    ParallelClassScheduler.runClass(loader, className));
+            }
+        }
+        finally
+        {
+            ThreadLocalSystemIO.uninstall();
+            resetJvmState();
+            loader.release();
+            warmNextLoader();
+        }
+
+        return results;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Runs jobs until the worker is asked to quit or there are no more.
+     *
+     * @param reader where to read the jobs from
+     * @param writer where to write the results to
+     * @throws IOException if reading or writing fails
+     */
+    private void handle(BufferedReader reader, Writer writer)
+        throws IOException
+    {
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+            String[] fields = line.split("\t", -1);
+
+            if (fields[0].equals(QUIT))
+            {
+                return;
+            }
+            else if (fields[0].equals(RUN) && fields.length >= 3)
+            {
+                String nonce = fields[1];
+                List<String> classNames = new ArrayList<String>();
+
+                for (int i = 3; i < fields.length; i++)
+                {
+                    classNames.add(unescape(fields[i]));
+                }
+
+                List<ParallelClassScheduler.ClassResult> results = runJob(
+                    ParallelClassScheduler.toURLs(unescape(fields[2])),
+                    classNames);
+
+                writer.write('\n');
+
+                for (ParallelClassScheduler.ClassResult result : results)
+                {
+                    writeResult(writer, nonce, result);
+                }
+
+                writer.write(nonce + "\t" + DONE + "\n");
+                writer.flush();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Writes the results of a class.
+     *
+     * @param writer where to write the results
+     * @param nonce the nonce of the job, which starts each line
+     * @param result the results
+     * @throws IOException if writing fails
+     */
+    private static void writeResult(Writer writer, String nonce,
+        ParallelClassScheduler.ClassResult result)
+        throws IOException
+    {
+        writer.write(nonce
+            + "\t" + CLASS
+            + "\t" + escape(result.getClassName())
+            + "\t" + result.getRunCount()
+            + "\t" + result.getFailureCount()
+            + "\t" + result.getIgnoreCount()
+            + "\t" + result.getRunTime()
+            + "\t" + escape(result.getError())
+            + "\t" + escape(result.getOutput())
+            + "\n");
+
+        for (ParallelClassScheduler.FailureData failure : result.getFailures())
+        {
+            writer.write(nonce
+                + "\t" + FAILURE
+                + "\t" + escape(failure.getTestHeader())
+                + "\t" + escape(failure.getMessage())
+                + "\t" + escape(failure.getTrace())
+                + "\n");
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Escapes a string so that it can be sent as a single field: tabs,
+     * newlines, carriage returns, and backslashes are written as
+     * {@code \t}, {@code \n}, {@code \r}, and {@code \\}, and null is written
+     * as {@code \0}.
+     *
+     * @param value the string to escape, which may be null
+     * @return the escaped string
+     */
+    static String escape(String value)
+    {
+        if (value == null)
+        {
+            return "\\0";
+        }
+
+        StringBuilder result = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            switch (c)
+            {
+                case '\\': result.append("\\\\"); break;
+                case '\t': result.append("\\t"); break;
+                case '\n': result.append("\\n"); break;
+                case '\r': result.append("\\r"); break;
+                default:   result.append(c); break;
+            }
+        }
+
+        return result.toString();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Reverses {@link #escape(String)}.
+     *
+     * @param value the escaped string
+     * @return the original string, which may be null
+     */
+    static String unescape(String value)
+    {
+        if (value.equals("\\0"))
+        {
+            return null;
+        }
+
+        StringBuilder result = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (c == '\\' && i + 1 < value.length())
+            {
+                c = value.charAt(++i);
+
+                switch (c)
+                {
+                    case 't': c = '\t'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    default:  break;
+                }
+            }
+
+            result.append(c);
+        }
+
+        return result.toString();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Starts creating and warming up the class loader for the next job.
+     */
+    private void warmNextLoader()
+    {
+        nextLoader = warmer.submit(
+            new Callable<ParallelClassScheduler.IsolatedClassLoader>() {
+                public ParallelClassScheduler.IsolatedClassLoader call()
+                {
+                    return warmLoader();
+                }
+            });
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the class loader that was warmed up for the next job, waiting for
+     * it if it is not ready yet.
+     *
+     * @return the class loader
+     */
+    private ParallelClassScheduler.IsolatedClassLoader takeLoader()
+    {
+        try
+        {
+            return nextLoader.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            // Fall through and use a cold one.
+        }
+
+        return new ParallelClassScheduler.IsolatedClassLoader(classPath);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a class loader for a job and loads the classes that every job
+     * needs into it. Any of them that cannot be loaded are simply left to be
+     * loaded when the job needs them.
+     *
+     * @return the class loader
+     */
+    private ParallelClassScheduler.IsolatedClassLoader warmLoader()
+    {
+        ParallelClassScheduler.IsolatedClassLoader loader =
+            new ParallelClassScheduler.IsolatedClassLoader(classPath);
+
+        for (String className : WARM_CLASSES)
+        {
+            try
+            {
+                Class.forName(className, true, loader);
+            }
+            catch (Throwable e)
+            {
+                // Ignore it.
+            }
+        }
+
+        // Creating Robolectric's instrumenting class loader is the slowest
+        // part of starting a test run, so do it now as well. The method is
+        // not public, so this may not work with every version. The shutdown
+        // hook that the instrumenting loader adds to save its cache is
+        // removed again when the job's loader is released.
+        try
+        {
+            Class<?> runner = loader.loadClass(
+                "com.xtremelabs.robolectric.RobolectricTestRunner");
+            Method getDefaultLoader =
+                runner.getDeclaredMethod("getDefaultLoader");
+            getDefaultLoader.setAccessible(true);
+            getDefaultLoader.invoke(null);
+        }
+        catch (Throwable e)
+        {
+            // Ignore it.
+        }
+
+        return loader;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Puts back the state of the JVM that a job may have changed.
+     */
+    private void resetJvmState()
+    {
+        System.setProperties((Properties) properties.clone());
+        Locale.setDefault(locale);
+        TimeZone.setDefault(timeZone);
+        System.setOut(out);
+        System.setErr(err);
+        System.setIn(in);
+        Thread.currentThread().setContextClassLoader(
+            TestWorker.class.getClassLoader());
+    }
+}
@@ -0,0 +1,666 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+//-------------------------------------------------------------------------
+/**
+ * Starts a pool of {@link TestWorker} JVMs and hands suites of test classes
+ * out to them, so that a grading process that runs many suites only pays for
+ * starting the JVMs once.
+ *
+ * Each call to {@link #run(String, List)} waits for an idle worker, sends it
+ * the job, and returns the results. Calls may be made from several threads
+ * at once, in which case up to one job per worker runs at the same time. A
+ * worker that dies, or that does not finish a job within the job timeout,
+ * is destroyed and replaced, and the classes in the job it was running are
+ * reported as not having been run. Each worker is also replaced after it has
+ * run a fixed number of jobs, since a job can leave behind threads that keep
+ * its classes from being collected.
+ *
+ * The workers are stopped when the pool is closed, or by a shutdown hook
+ * when this JVM exits. If this JVM dies without running its shutdown hooks,
+ * the workers exit on their own once their standard input is closed.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class TestWorkerPool
+{
+    //~ Instance/static variables .............................................
+
+    /** The default time that a worker is given to start or run a job. */
+    public static final long DEFAULT_JOB_TIMEOUT = 10 * 60 * 1000;
+
+    /** The default number of jobs that a worker runs before it is replaced. */
+    public static final int DEFAULT_JOBS_PER_WORKER = 50;
+
+    private final List<String> command;
+    private final long jobTimeout;
+    private final int jobsPerWorker;
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+    private final List<Worker> all = new ArrayList<Worker>();
+    private final Timer deadlines = new Timer("TestWorkerPool-deadlines", true);
+    private final Thread shutdownHook;
+    private boolean closed;
+
+    // Chooses the nonce that tags the replies to each job.
+    private static final SecureRandom random = new SecureRandom();
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Starts the specified number of workers, using the same Java runtime
+     * and class path as this JVM.
+     *
+     * @param size the number of workers
+     * @throws IOException if a worker cannot be started
+     */
+    public TestWorkerPool(int size)
+        throws IOException
+    {
+        this(size, System.getProperty("java.class.path"),
+            new ArrayList<String>());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Starts the specified number of workers.
+     *
+     * @param size the number of workers
+     * @param classPath the class path of the library, including JUnit and
+     *     Robolectric
+     * @param jvmOptions extra options to pass to each worker JVM, such as
+     *     the maximum heap size
+     * @throws IOException if a worker cannot be started
+     */
+    public TestWorkerPool(int size, String classPath, List<String> jvmOptions)
+        throws IOException
+    {
+        this(size, classPath, jvmOptions, DEFAULT_JOB_TIMEOUT,
+            DEFAULT_JOBS_PER_WORKER);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Starts the specified number of workers.
+     *
+     * @param size the number of workers
+     * @param classPath the class path of the library, including JUnit and
+     *     Robolectric
+     * @param jvmOptions extra options to pass to each worker JVM, such as
+     *     the maximum heap size
+     * @param jobTimeout the time, in milliseconds, that a worker is given to
+     *     start, or to run a job, before it is destroyed
+     * @param jobsPerWorker the number of jobs that a worker runs before it
+     *     is replaced
+     * @throws IOException if a worker cannot be started
+     */
+    public TestWorkerPool(int size, String classPath, List<String> jvmOptions,
+        long jobTimeout, int jobsPerWorker)
+        throws IOException
+    {
+        if (size < 1)
+        {
+            throw new IllegalArgumentException(
+                "size must be at least 1, but was " + size);
+        }
+
+        if (jobTimeout < 1)
+        {
+            throw new IllegalArgumentException(
+                "jobTimeout must be at least 1, but was " + jobTimeout);
+        }
+
+        if (jobsPerWorker < 1)
+        {
+            throw new IllegalArgumentException(
+                "jobsPerWorker must be at least 1, but was " + jobsPerWorker);
+        }
+
+        this.jobTimeout = jobTimeout;
+        this.jobsPerWorker = jobsPerWorker;
+
+        command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java");
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(classPath);
+        command.add(TestWorker.class.getName());
+
+        shutdownHook = new Thread("TestWorkerPool-shutdown") {
+            @Override
+            public void run()
+            {
+                close();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        try
+        {
+            for (int i = 0; i < size; i++)
+            {
+                idle.add(startWorker());
+            }
+        }
+        catch (IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Runs a suite of test classes on the next idle worker.
+     *
+     * @param classPath the class path entries that hold the classes under
+     *     test, separated by the platform's path separator
+     * @param classNames the names of the test classes to run
+     * @return the results of the classes, in the same order as their names
+     * @throws InterruptedException if the current thread is interrupted
+     *     while waiting for a worker
+     */
+    public List<ParallelClassScheduler.ClassResult> run(
+        String classPath, List<String> classNames)
+        throws InterruptedException
+    {
+        Worker worker = idle.take();
+
+        try
+        {
+            List<ParallelClassScheduler.ClassResult> results =
+                worker.run(classPath, classNames, deadlines, jobTimeout);
+
+            if (worker.jobs < jobsPerWorker)
+            {
+                idle.add(worker);
+            }
+            else
+            {
+                replace(worker);
+            }
+
+            return results;
+        }
+        catch (IOException e)
+        {
+            replace(worker);
+
+            List<ParallelClassScheduler.ClassResult> results =
+                new ArrayList<ParallelClassScheduler.ClassResult>();
+
+            for (String className : classNames)
+            {
+                results.add(
+                    new ParallelClassScheduler.ClassResult(className, e));
+            }
+
+            return results;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Stops all of the workers.
+     */
+    public synchronized void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+
+        try
+        {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        catch (IllegalStateException e)
+        {
+            // This JVM is already shutting down.
+        }
+
+        for (Worker worker : all)
+        {
+            worker.stop();
+        }
+
+        all.clear();
+        idle.clear();
+        deadlines.cancel();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Starts a worker and connects to it.
+     *
+     * @return the worker
+     * @throws IOException if the worker cannot be started
+     */
+    private synchronized Worker startWorker()
+        throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("The pool has been closed");
+        }
+
+        Worker worker = new Worker(command, deadlines, jobTimeout);
+        all.add(worker);
+        return worker;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Stops a worker that has failed or that has run all of the jobs it is
+     * allowed to, and starts another in its place.
+     *
+     * @param worker the worker to replace
+     */
+    private void replace(Worker worker)
+    {
+        synchronized (this)
+        {
+            worker.stop();
+            all.remove(worker);
+        }
+
+        try
+        {
+            idle.add(startWorker());
+        }
+        catch (IOException e)
+        {
+            // The pool just has one fewer worker. If that was the last one,
+            // run() will block, so fail loudly instead.
+            synchronized (this)
+            {
+                if (all.isEmpty() && !closed)
+                {
+                    throw new IllegalStateException(
+                        "Could not restart a test worker", e);
+                }
+            }
+        }
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A worker JVM, which is sent jobs over its standard input and replies
+     * over its standard output.
+     */
+    private static class Worker
+    {
+        private Process process;
+        private BufferedReader reader;
+        private Writer writer;
+        private volatile boolean timedOut;
+        private int jobs;
+
+        // ----------------------------------------------------------
+        /**
+         * Starts a worker JVM and waits for it to be ready.
+         *
+         * @param command the command that starts the worker
+         * @param timer the timer to schedule the deadline for starting on
+         * @param timeout the time the worker is given to start
+         * @throws IOException if the worker cannot be started
+         */
+        public Worker(List<String> command, Timer timer, long timeout)
+            throws IOException
+        {
+            process = new ProcessBuilder(command).start();
+
+            // Anything the worker writes to standard error must still be
+            // read, or the worker will block once the pipe fills up.
+            drain(process.getErrorStream());
+
+            TimerTask deadline = startDeadline(timer, timeout);
+
+            try
+            {
+                reader = new BufferedReader(new InputStreamReader(
+                    process.getInputStream(), "UTF-8"));
+                writer = new BufferedWriter(new OutputStreamWriter(
+                    process.getOutputStream(), "UTF-8"));
+
+                String line = reader.readLine();
+
+                if (!TestWorker.READY.equals(line))
+                {
+                    throw new IOException(timedOut
+                        ? "The test worker was not ready within "
+                            + timeout + " ms"
+                        : "The test worker exited before it was ready");
+                }
+            }
+            catch (IOException e)
+            {
+                stop();
+                throw e;
+            }
+            finally
+            {
+                deadline.cancel();
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Sends a job to the worker and reads its results. If the worker
+         * does not finish the job in time, it is destroyed.
+         *
+         * @param classPath the class path entries that hold the classes
+         *     under test
+         * @param classNames the names of the test classes to run
+         * @param timer the timer to schedule the deadline for the job on
+         * @param timeout the time the worker is given to run the job
+         * @return the results of the classes
+         * @throws IOException if the worker fails or does not finish in time
+         */
+        public List<ParallelClassScheduler.ClassResult> run(
+            String classPath, List<String> classNames, Timer timer,
+            long timeout)
+            throws IOException
+        {
+            jobs++;
+
+            TimerTask deadline = startDeadline(timer, timeout);
+
+            try
+            {
+                return readResults(classPath, classNames);
+            }
+            catch (IOException e)
+            {
+                if (timedOut)
+                {
+                    throw new IOException("The test worker did not finish "
+                        + "the job within " + timeout + " ms");
+                }
+
+                throw e;
+            }
+            finally
+            {
+                deadline.cancel();
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Sends a job to the worker and reads its results.
+         *
+         * @param classPath the class path entries that hold the classes
+         *     under test
+         * @param classNames the names of the test classes to run
+         * @return the results of the classes
+         * @throws IOException if the worker fails or sends something that
+         *     is not a valid reply
+         */
+        private List<ParallelClassScheduler.ClassResult> readResults(
+            String classPath, List<String> classNames)
+            throws IOException
+        {
+            String nonce = newNonce();
+            String tag = nonce + "\t";
+
+            StringBuilder job = new StringBuilder(TestWorker.RUN);
+            job.append('\t');
+            job.append(nonce);
+            job.append('\t');
+            job.append(TestWorker.escape(classPath));
+
+            for (String className : classNames)
+            {
+                job.append('\t');
+                job.append(TestWorker.escape(className));
+            }
+
+            job.append('\n');
+            writer.write(job.toString());
+            writer.flush();
+
+            List<ParallelClassScheduler.ClassResult> results =
+                new ArrayList<ParallelClassScheduler.ClassResult>();
+            String[] current = null;
+            List<ParallelClassScheduler.FailureData> failures = null;
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                // Anything else was written by the code under test.
+                if (!line.startsWith(tag))
+                {
+                    continue;
+                }
+
+                String[] fields = line.substring(tag.length()).split("\t", -1);
+
+                try
+                {
+                    if (fields[0].equals(TestWorker.FAILURE) && current != null)
+                    {
+                        failures.add(new ParallelClassScheduler.FailureData(
+                            TestWorker.unescape(fields[1]),
+                            TestWorker.unescape(fields[2]),
+                            TestWorker.unescape(fields[3])));
+                        continue;
+                    }
+
+                    if (current != null)
+                    {
+                        results.add(toResult(current, failures));
+                        current = null;
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    // Such as a missing field or a count that is not a
+                    // number.
+                    IOException error = new IOException(
+                        "The test worker sent a malformed reply: " + line);
+                    error.initCause(e);
+                    throw error;
+                }
+
+                if (fields[0].equals(TestWorker.CLASS))
+                {
+                    current = fields;
+                    failures =
+                        new ArrayList<ParallelClassScheduler.FailureData>();
+                }
+                else if (fields[0].equals(TestWorker.DONE))
+                {
+                    if (results.size() != classNames.size())
+                    {
+                        throw new IOException("The test worker sent results "
+                            + "for " + results.size() + " of "
+                            + classNames.size() + " classes");
+                    }
+
+                    return results;
+                }
+            }
+
+            throw new IOException("The test worker exited during a job");
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Chooses the nonce for a job, which the worker puts at the start of
+         * each line of its reply. It cannot be guessed by the code under
+         * test, which can write to the standard output of the worker but
+         * never sees the job.
+         *
+         * @return the nonce
+         */
+        private static String newNonce()
+        {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+
+            StringBuilder nonce = new StringBuilder();
+
+            for (byte b : bytes)
+            {
+                nonce.append(Integer.toHexString((b & 0xff) | 0x100)
+                    .substring(1));
+            }
+
+            return nonce.toString();
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Stops the worker.
+         */
+        public void stop()
+        {
+            if (writer != null)
+            {
+                try
+                {
+                    writer.write(TestWorker.QUIT + "\n");
+                    writer.close();
+                }
+                catch (IOException e)
+                {
+                    // It is destroyed below regardless.
+                }
+            }
+
+            process.destroy();
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Schedules the worker to be destroyed if it is still running after
+         * the specified time, which makes whatever is reading from it fail.
+         *
+         * @param timer the timer to schedule the deadline on
+         * @param timeout the time, in milliseconds
+         * @return the deadline, which must be cancelled once it is met
+         */
+        private TimerTask startDeadline(Timer timer, long timeout)
+        {
+            TimerTask deadline = new TimerTask() {
+                @Override
+                public void run()
+                {
+                    timedOut = true;
+                    process.destroy();
+                }
+            };
+
+            timer.schedule(deadline, timeout);
+            return deadline;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Reads and discards everything from a stream, on a thread of its
+         * own.
+         *
+         * @param stream the stream
+         */
+        private static void drain(final InputStream stream)
+        {
+            Thread drainer = new Thread("TestWorkerPool-drainer") {
+                @Override
+                public void run()
+                {
+                    byte[] buffer = new byte[4096];
+
+                    try
+                    {
+                        while (stream.read(buffer) >= 0)
+                        {
+                            // Discard it.
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        // The worker has exited.
+                    }
+                }
+            };
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+
+
+        // ----------------------------------------------------------
+        private static ParallelClassScheduler.ClassResult toResult(
+            String[] fields, List<ParallelClassScheduler.FailureData> failures)
+        {
+            return new ParallelClassScheduler.ClassResult(
+                TestWorker.unescape(fields[1]),
+                Integer.parseInt(fields[2]),
+                Integer.parseInt(fields[3]),
+                Integer.parseInt(fields[4]),
+                Long.parseLong(fields[5]),
+                failures,
+                TestWorker.unescape(fields[6]),
+                TestWorker.unescape(fields[7]));
+        }
+    }
+}
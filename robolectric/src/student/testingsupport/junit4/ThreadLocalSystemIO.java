@@ -0,0 +1,509 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import student.testingsupport.MutableStringBufferInputStream;
+import student.testingsupport.PrintStreamWithHistory;
+import student.testingsupport.SystemIOUtilities;
+
+//-------------------------------------------------------------------------
+/**
+ * Gives each thread its own {@link System#out}, {@link System#err}, and
+ * {@link System#in}, so that tests running at the same time on different
+ * threads do not see each other's output history or input.
+ *
+ * While installed, the system streams are replaced by streams that forward
+ * everything to the streams of the current thread. Threads that have begun a
+ * {@link Capture} (and any threads that they start) write into that
+ * capture's buffers and read from their own, initially empty, input; all
+ * other threads use the original streams. Since
+ * the replacement streams are a {@link PrintStreamWithHistory} and a
+ * {@link MutableStringBufferInputStream}, the methods of
+ * {@link SystemIOUtilities} work on them unchanged, but code that calls
+ * {@code System.setOut()} or {@code System.setIn()} directly is not
+ * isolated. This only holds for code that uses the same copies of those
+ * classes as this one, so class loaders that load the tests apart from this
+ * class must leave the {@link #STREAM_CLASSES} to it.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class ThreadLocalSystemIO
+{
+    //~ Instance/static variables .............................................
+
+    /**
+     * The classes that check for the replacement streams, which must be
+     * loaded by the same class loader as this class in order to recognize
+     * them.
+     */
+    static final Class<?>[] STREAM_CLASSES = {
+        SystemIOUtilities.class,
+        PrintStreamWithHistory.class,
+        MutableStringBufferInputStream.class
+    };
+
+    // Inherited, so that threads started by a test (such as the ones that
+    // enforce timeouts) share its streams.
+    private static final ThreadLocal<Capture> capture =
+        new InheritableThreadLocal<Capture>();
+
+    private static int installCount;
+
+    private static PrintStream originalOut;
+    private static PrintStream originalErr;
+    private static InputStream originalIn;
+
+    // Used by the threads that are not capturing.
+    private static PrintStreamWithHistory defaultOut;
+    private static PrintStreamWithHistory defaultErr;
+    private static MutableStringBufferInputStream defaultIn;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * This class provides only static methods.
+     */
+    private ThreadLocalSystemIO()
+    {
+        // Nothing to do.
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Replaces the system streams with ones that forward to the streams of
+     * the current thread. Calls may be nested; the original streams are put
+     * back by the matching call to {@link #uninstall()}.
+     */
+    public static synchronized void install()
+    {
+        if (installCount++ > 0)
+        {
+            return;
+        }
+
+        originalOut = System.out;
+        originalErr = System.err;
+        originalIn = System.in;
+
+        defaultOut = withHistory(originalOut);
+        defaultErr = withHistory(originalErr);
+
+        if (originalIn instanceof MutableStringBufferInputStream)
+        {
+            defaultIn = (MutableStringBufferInputStream) originalIn;
+        }
+        else
+        {
+            defaultIn = new MutableStringBufferInputStream(originalIn);
+            defaultIn.setName("System.in");
+        }
+
+        System.setOut(new RoutingPrintStream(originalOut, false));
+        System.setErr(new RoutingPrintStream(originalErr, true));
+        System.setIn(new RoutingInputStream());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Puts back the system streams that were replaced by {@link #install()}.
+     */
+    public static synchronized void uninstall()
+    {
+        if (installCount == 0 || --installCount > 0)
+        {
+            return;
+        }
+
+        System.out.flush();
+        System.err.flush();
+
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+        System.setIn(originalIn);
+
+        originalOut = originalErr = null;
+        originalIn = null;
+        defaultOut = defaultErr = null;
+        defaultIn = null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the original {@code System.out}, which was replaced by
+     * {@link #install()}.
+     *
+     * @return the original {@code System.out}
+     */
+    public static synchronized PrintStream getOriginalOut()
+    {
+        return installCount > 0 ? originalOut : System.out;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the original {@code System.err}, which was replaced by
+     * {@link #install()}.
+     *
+     * @return the original {@code System.err}
+     */
+    public static synchronized PrintStream getOriginalErr()
+    {
+        return installCount > 0 ? originalErr : System.err;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Starts capturing the output of the current thread, and gives it its own
+     * input stream, which has no contents until they are set.
+     *
+     * @return the capture, which collects the output of the thread until
+     *     {@link #endCapture()} is called
+     */
+    public static Capture beginCapture()
+    {
+        Capture newCapture = new Capture();
+        capture.set(newCapture);
+        return newCapture;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Stops capturing the output of the current thread.
+     */
+    public static void endCapture()
+    {
+        Capture oldCapture = capture.get();
+
+        if (oldCapture != null)
+        {
+            oldCapture.out.flush();
+            oldCapture.err.flush();
+            capture.remove();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static PrintStreamWithHistory withHistory(PrintStream stream)
+    {
+        if (stream instanceof PrintStreamWithHistory)
+        {
+            return (PrintStreamWithHistory) stream;
+        }
+        else
+        {
+            return new PrintStreamWithHistory(stream);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static synchronized PrintStreamWithHistory defaultStream(
+        boolean error)
+    {
+        return error ? defaultErr : defaultOut;
+    }
+
+
+    // ----------------------------------------------------------
+    private static synchronized MutableStringBufferInputStream defaultIn()
+    {
+        return defaultIn;
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * The output of one thread, along with its own input stream.
+     */
+    public static class Capture
+    {
+        private ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        private ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+
+        private PrintStreamWithHistory out =
+            new PrintStreamWithHistory(outBytes);
+        private PrintStreamWithHistory err =
+            new PrintStreamWithHistory(errBytes);
+        private MutableStringBufferInputStream in =
+            new MutableStringBufferInputStream((String) null);
+
+        // ----------------------------------------------------------
+        private Capture()
+        {
+            in.setName("System.in");
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Writes the captured output to the specified streams.
+         *
+         * @param outStream where to write what was written to System.out
+         * @param errStream where to write what was written to System.err
+         */
+        public void writeTo(PrintStream outStream, PrintStream errStream)
+        {
+            out.flush();
+            err.flush();
+
+            outStream.write(outBytes.toByteArray(), 0, outBytes.size());
+            errStream.write(errBytes.toByteArray(), 0, errBytes.size());
+
+            outStream.flush();
+            errStream.flush();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Replaces {@code System.out} or {@code System.err}, forwarding to the
+     * stream of the current thread.
+     */
+    private static class RoutingPrintStream
+        extends PrintStreamWithHistory
+    {
+        private boolean error;
+
+        // ----------------------------------------------------------
+        public RoutingPrintStream(PrintStream original, boolean error)
+        {
+            super(original);
+            this.error = error;
+        }
+
+
+        // ----------------------------------------------------------
+        private PrintStreamWithHistory target()
+        {
+            Capture current = capture.get();
+
+            if (current != null)
+            {
+                return error ? current.err : current.out;
+            }
+            else
+            {
+                return defaultStream(error);
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public String getHistory()
+        {
+            return target().getHistory();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void clearHistory()
+        {
+            target().clearHistory();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public StringBuffer getHistoryBuffer()
+        {
+            return target().getHistoryBuffer();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void write(int b)
+        {
+            target().write(b);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void write(byte[] buf, int off, int len)
+        {
+            target().write(buf, off, len);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void flush()
+        {
+            target().flush();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public boolean checkError()
+        {
+            return target().checkError();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void close()
+        {
+            // The underlying streams are shared, so never close them.
+            flush();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Replaces {@code System.in}, forwarding to the input stream of the
+     * current thread.
+     */
+    private static class RoutingInputStream
+        extends MutableStringBufferInputStream
+    {
+        // False while the superclass constructor runs, so that it does not
+        // reset the current thread's input.
+        private boolean constructed;
+
+        // ----------------------------------------------------------
+        public RoutingInputStream()
+        {
+            super((String) null);
+            constructed = true;
+        }
+
+
+        // ----------------------------------------------------------
+        private MutableStringBufferInputStream target()
+        {
+            Capture current = capture.get();
+            return (current != null) ? current.in : defaultIn();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public String getName()
+        {
+            return constructed ? target().getName() : super.getName();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void setName(String name)
+        {
+            if (constructed)
+            {
+                target().setName(name);
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void resetContents(String newContents)
+        {
+            if (constructed)
+            {
+                target().resetContents(newContents);
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void resetContents(InputStream newContents)
+        {
+            if (constructed)
+            {
+                target().resetContents(newContents);
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public int read()
+            throws IOException
+        {
+            return target().read();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            return target().read(b, off, len);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public long skip(long n)
+            throws IOException
+        {
+            return target().skip(n);
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public int available()
+            throws IOException
+        {
+            return target().available();
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void reset()
+            throws IOException
+        {
+            target().reset();
+        }
+    }
+}
@@ -0,0 +1,788 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.runners.model.Statement;
+
+//-------------------------------------------------------------------------
+/**
+ * Enforces test timeouts with a single shared thread, instead of starting a
+ * new thread for every test method the way JUnit's {@code FailOnTimeout}
+ * does.
+ *
+ * The statement returned by {@link #failOnTimeout(Statement, long)} runs the
+ * test on the calling thread, after registering it with the watchdog. The
+ * watchdog thread keeps its deadlines in a timer wheel, so registering and
+ * cancelling a deadline takes constant time no matter how many there are.
+ * When a test runs past its deadline, the watchdog first interrupts the
+ * test's thread, which ends tests that are sleeping or waiting. If the test
+ * is still running after a short grace period, the watchdog stops the thread
+ * with {@link Thread#stop()}, which ends tests that are stuck in a loop, and
+ * keeps doing so until the test gives up. Either way, the test fails with
+ * the same message, and the same stack trace, that {@code FailOnTimeout}
+ * would have given it. On JVMs that cannot stop threads, tests are run on a
+ * thread of their own instead, as {@code FailOnTimeout} runs them, and a
+ * test that is still running after the grace period is abandoned, and
+ * fails, while its thread is left to run.
+ *
+ * Deadlines can also be given in terms of the CPU time used by the test's
+ * thread, with {@link #failOnCpuTimeout(Statement, long, long)}, so that a
+ * test is not cut off just because the machine is busy running other tests.
+ * The watchdog checks the thread's CPU time when the deadline would have
+ * come due if the test had been running the whole time, and pushes it back
+ * by however much time the test spent waiting for the CPU, up to a cap on
+ * the wall-clock time.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class TimeoutWatchdog
+    implements Runnable
+{
+    //~ Instance/static variables .............................................
+
+    // The resolution of the deadlines, in milliseconds.
+    private static final long TICK = 10;
+
+    // The number of slots in the wheel; must be a power of two.
+    private static final int WHEEL_SIZE = 512;
+
+    // How long to wait after interrupting a test, and after each attempt to
+    // stop it, before trying to stop it (again), in milliseconds.
+    private static final long GRACE = 200;
+
+    private static TimeoutWatchdog instance;
+
+    // The watch for the test running on each thread.
+    private static final ThreadLocal<Watch> currentWatch =
+        new ThreadLocal<Watch>();
+
+    private static ThreadMXBean threads;
+    private static Boolean cpuTimeSupported;
+    private static Boolean stopSupported;
+
+    private final List<List<Watch>> wheel;
+    private int pending;
+    private long tick;
+    private long startTime;
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates the watchdog and starts its thread.
+     */
+    private TimeoutWatchdog()
+    {
+        wheel = new ArrayList<List<Watch>>(WHEEL_SIZE);
+
+        for (int i = 0; i < WHEEL_SIZE; i++)
+        {
+            wheel.add(new ArrayList<Watch>());
+        }
+
+        startTime = System.currentTimeMillis();
+
+        Thread thread = new Thread(this, "TimeoutWatchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Returns a statement that runs {@code next} on the current thread, and
+     * fails if it takes longer than the specified timeout.
+     *
+     * @param next the statement to run
+     * @param timeout the timeout, in milliseconds; if it is 0, there is no
+     *     timeout
+     * @return the statement
+     */
+    public static Statement failOnTimeout(Statement next, long timeout)
+    {
+        return new FailOnTimeout(next, timeout, 0);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Returns a statement that runs {@code next} on the current thread, and
+     * fails if the thread uses more than the specified CPU time, or if it
+     * takes longer than the specified wall-clock time. If this JVM cannot
+     * measure the CPU time of threads, the CPU timeout is used as a
+     * wall-clock timeout instead.
+     *
+     * @param next the statement to run
+     * @param cpuTimeout the CPU timeout, in milliseconds; if it is 0, there
+     *     is no CPU timeout
+     * @param wallTimeout the wall-clock timeout, in milliseconds; if it is
+     *     0, there is no timeout at all
+     * @return the statement
+     */
+    public static Statement failOnCpuTimeout(
+        Statement next, long cpuTimeout, long wallTimeout)
+    {
+        if (isCpuTimeSupported())
+        {
+            return new FailOnTimeout(next, wallTimeout, cpuTimeout);
+        }
+        else
+        {
+            return new FailOnTimeout(next, cpuTimeout, 0);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determines whether this JVM can measure the CPU time used by a thread,
+     * enabling the measurement if necessary.
+     *
+     * @return true if the CPU time of threads can be measured
+     */
+    public static synchronized boolean isCpuTimeSupported()
+    {
+        if (cpuTimeSupported == null)
+        {
+            boolean supported = false;
+
+            try
+            {
+                threads = ManagementFactory.getThreadMXBean();
+
+                if (threads.isThreadCpuTimeSupported())
+                {
+                    if (!threads.isThreadCpuTimeEnabled())
+                    {
+                        threads.setThreadCpuTimeEnabled(true);
+                    }
+
+                    supported = true;
+                }
+            }
+            catch (RuntimeException e)
+            {
+                // Not supported, or not allowed.
+            }
+
+            cpuTimeSupported = supported;
+        }
+
+        return cpuTimeSupported;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determines whether this JVM lets the watchdog stop threads with
+     * {@link Thread#stop()}, which is not supported from Java 20 on, and
+     * may be forbidden by a security manager.
+     *
+     * @return true if threads can be stopped
+     */
+    @SuppressWarnings("deprecation")
+    private static synchronized boolean canStopThreads()
+    {
+        if (stopSupported == null)
+        {
+            boolean supported = false;
+
+            try
+            {
+                // A thread that is never started is not affected.
+                new Thread().stop();
+                supported = true;
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // Not supported.
+            }
+            catch (SecurityException e)
+            {
+                // Not allowed.
+            }
+
+            stopSupported = supported;
+        }
+
+        return stopSupported;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Determines whether the test running on the current thread has run
+     * past its deadline. The {@code @After} methods of a test that times out
+     * are run before it fails, so they can use this to find out that it did.
+     *
+     * @return true if the current test has timed out
+     */
+    public static boolean hasTimedOut()
+    {
+        Watch watch = currentWatch.get();
+        return watch != null && watch.isExpired();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the CPU time used so far by a thread.
+     *
+     * @param thread the thread
+     * @return the CPU time, in nanoseconds, or -1 if it is not available
+     */
+    private static long cpuTime(Thread thread)
+    {
+        return isCpuTimeSupported()
+            ? threads.getThreadCpuTime(thread.getId())
+            : -1;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the watchdog, starting it if necessary.
+     *
+     * @return the watchdog
+     */
+    private static synchronized TimeoutWatchdog getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new TimeoutWatchdog();
+        }
+
+        return instance;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Runs the watchdog: advances the wheel one tick at a time, firing the
+     * deadlines in each slot that have come due, and sleeps while there are
+     * no deadlines at all.
+     */
+    public void run()
+    {
+        List<Watch> due = new ArrayList<Watch>();
+
+        while (true)
+        {
+            try
+            {
+                synchronized (this)
+                {
+                    while (pending == 0)
+                    {
+                        wait();
+                    }
+
+                    long delay = startTime + (tick + 1) * TICK
+                        - System.currentTimeMillis();
+
+                    if (delay > 0)
+                    {
+                        wait(delay);
+                        continue;
+                    }
+
+                    tick++;
+
+                    Iterator<Watch> slot =
+                        wheel.get((int) (tick & (WHEEL_SIZE - 1))).iterator();
+
+                    while (slot.hasNext())
+                    {
+                        Watch watch = slot.next();
+
+                        if (watch.cancelled)
+                        {
+                            slot.remove();
+                            pending--;
+                        }
+                        else if (watch.rounds > 0)
+                        {
+                            watch.rounds--;
+                        }
+                        else
+                        {
+                            slot.remove();
+                            pending--;
+                            due.add(watch);
+                        }
+                    }
+                }
+
+                // Fire them without holding the lock on the wheel, so that
+                // tests can keep registering and cancelling deadlines.
+                for (Watch watch : due)
+                {
+                    long delay;
+
+                    try
+                    {
+                        delay = watch.fire();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // Try this one again later, and carry on with the
+                        // rest, so that every test is still watched.
+                        delay = GRACE;
+                    }
+
+                    if (delay >= 0)
+                    {
+                        schedule(watch, delay);
+                    }
+                }
+
+                due.clear();
+            }
+            catch (InterruptedException e)
+            {
+                // Keep going; nothing else should interrupt this thread.
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds a deadline to the wheel.
+     *
+     * @param watch the deadline
+     * @param delay how long from now the deadline is, in milliseconds
+     */
+    private synchronized void schedule(Watch watch, long delay)
+    {
+        long now = System.currentTimeMillis();
+
+        // The wheel does not turn while it is empty, so pick up the ticks
+        // from where they left off.
+        if (pending == 0)
+        {
+            startTime = now - tick * TICK;
+        }
+
+        // The number of ticks from the last one processed, rounded up so
+        // that a deadline never fires early.
+        long ticks = Math.max(1,
+            (now + delay - startTime + TICK - 1) / TICK - tick);
+
+        watch.rounds = (ticks - 1) / WHEEL_SIZE;
+        wheel.get((int) ((tick + ticks) & (WHEEL_SIZE - 1))).add(watch);
+
+        if (pending++ == 0)
+        {
+            notify();
+        }
+    }
+
+
+    //~ Inner classes .........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A deadline for a test that is running on a particular thread.
+     */
+    private static class Watch
+    {
+        private final Thread thread;
+        private final long timeout;
+        private final long wallDeadline;
+        private final long cpuTimeout;
+        private final long cpuStart;
+
+        // Only changed by the watchdog, while holding the lock on the wheel.
+        private long rounds;
+
+        // Only changed while holding the lock on this watch, but read by the
+        // watchdog without it, to discard cancelled watches.
+        private volatile boolean cancelled;
+
+        // Guarded by this watch.
+        private boolean expired;
+        private long expiredTimeout;
+        private StackTraceElement[] stackTrace;
+        private boolean finished;
+        private boolean abandoned;
+
+        // ----------------------------------------------------------
+        /**
+         * Creates a watch for a thread.
+         *
+         * @param thread the thread that runs the test, which is either the
+         *     current thread or one that has not been started yet
+         * @param timeout the wall-clock timeout, in milliseconds
+         * @param cpuTimeout the CPU timeout, in milliseconds, or 0 if there
+         *     is none
+         */
+        public Watch(Thread thread, long timeout, long cpuTimeout)
+        {
+            this.thread = thread;
+            this.timeout = timeout;
+            this.wallDeadline = System.currentTimeMillis() + timeout;
+            this.cpuTimeout = cpuTimeout;
+            this.cpuStart = (cpuTimeout > 0 && thread.isAlive())
+                ? cpuTime(thread)
+                : 0;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Gets how long the watchdog should wait before checking this watch
+         * for the first time.
+         *
+         * @return the delay, in milliseconds
+         */
+        public long firstDelay()
+        {
+            return (cpuTimeout > 0) ? Math.min(cpuTimeout, timeout) : timeout;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Checks whether the test has used up its CPU time, if it has a CPU
+         * timeout. The first time the deadline comes due, interrupts the
+         * thread; each time after that, stops it. If the thread cannot be
+         * stopped, the test is abandoned instead.
+         *
+         * @return how long to wait before checking again, in milliseconds,
+         *     or -1 if the test is no longer running or has been abandoned
+         */
+        @SuppressWarnings("deprecation")
+        public synchronized long fire()
+        {
+            if (cancelled)
+            {
+                return -1;
+            }
+
+            if (expired)
+            {
+                if (canStopThreads())
+                {
+                    try
+                    {
+                        thread.stop();
+                        return GRACE;
+                    }
+                    catch (UnsupportedOperationException e)
+                    {
+                        // Abandon it below.
+                    }
+                }
+
+                abandoned = true;
+                notifyAll();
+                return -1;
+            }
+
+            long now = System.currentTimeMillis();
+            expiredTimeout = timeout;
+
+            if (cpuTimeout > 0 && now < wallDeadline)
+            {
+                long used = (cpuTime(thread) - cpuStart) / 1000000;
+
+                // The thread cannot use CPU time any faster than the clock
+                // runs, so it cannot time out before the rest of its CPU
+                // time would run out.
+                if (used >= 0 && used < cpuTimeout)
+                {
+                    return Math.min(cpuTimeout - used, wallDeadline - now);
+                }
+
+                expiredTimeout = cpuTimeout;
+            }
+
+            expired = true;
+            stackTrace = thread.getStackTrace();
+            thread.interrupt();
+            return GRACE;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Determines whether the test ran past its deadline.
+         *
+         * @return true if the test ran past its deadline
+         */
+        public synchronized boolean isExpired()
+        {
+            return expired;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Records that a test running on a thread of its own has ended.
+         */
+        public synchronized void finish()
+        {
+            finished = true;
+            notifyAll();
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Waits until a test running on a thread of its own has ended, or
+         * until it has been abandoned.
+         *
+         * @throws InterruptedException if the current thread is interrupted
+         *     while waiting
+         */
+        public synchronized void awaitEnd()
+            throws InterruptedException
+        {
+            while (!finished && !abandoned)
+            {
+                wait();
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Stops watching the test. Once this returns, the thread will not be
+         * interrupted or stopped by the watchdog.
+         *
+         * @return true if the test ran past its deadline
+         */
+        public synchronized boolean cancel()
+        {
+            cancelled = true;
+            return expired;
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Creates the exception that a test that ran past its deadline fails
+         * with.
+         *
+         * @return the exception
+         */
+        public synchronized Exception timeoutException()
+        {
+            Exception exception = new Exception(String.format(
+                "test timed out after %d milliseconds", expiredTimeout));
+
+            if (stackTrace != null)
+            {
+                exception.setStackTrace(stackTrace);
+            }
+
+            return exception;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Runs a statement on the current thread with a deadline.
+     */
+    private static class FailOnTimeout
+        extends Statement
+    {
+        private final Statement next;
+        private final long timeout;
+        private final long cpuTimeout;
+
+        // ----------------------------------------------------------
+        public FailOnTimeout(Statement next, long timeout, long cpuTimeout)
+        {
+            this.next = next;
+            this.timeout = timeout;
+            this.cpuTimeout = cpuTimeout;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public void evaluate()
+            throws Throwable
+        {
+            // These are the same as FailOnTimeout, which passes the timeout
+            // to Thread.join().
+            if (timeout == 0)
+            {
+                next.evaluate();
+                return;
+            }
+            else if (timeout < 0)
+            {
+                throw new IllegalArgumentException("timeout value is negative");
+            }
+
+            if (!canStopThreads())
+            {
+                evaluateOnNewThread();
+                return;
+            }
+
+            Watch watch = new Watch(Thread.currentThread(), timeout, cpuTimeout);
+            Watch outerWatch = currentWatch.get();
+            currentWatch.set(watch);
+            getInstance().schedule(watch, watch.firstDelay());
+
+            Throwable failure = null;
+            boolean started = false;
+            boolean expired;
+
+            // The watchdog may stop this thread again at any point until
+            // the watch is cancelled, so keep trying until it is.
+            while (true)
+            {
+                try
+                {
+                    if (!started)
+                    {
+                        started = true;
+                        next.evaluate();
+                    }
+
+                    expired = watch.cancel();
+                    currentWatch.set(outerWatch);
+                    break;
+                }
+                catch (Throwable e)
+                {
+                    if (failure == null)
+                    {
+                        failure = e;
+                    }
+                }
+            }
+
+            if (expired)
+            {
+                // Clear the interrupt, in case the test did not notice it,
+                // so that it does not affect the tests that follow.
+                Thread.interrupted();
+                throw watch.timeoutException();
+            }
+            else if (failure != null)
+            {
+                throw failure;
+            }
+        }
+
+
+        // ----------------------------------------------------------
+        /**
+         * Runs the statement on a thread of its own, for JVMs that cannot
+         * stop threads, and waits for it to end or to be abandoned.
+         *
+         * @throws Throwable if the statement fails or times out
+         */
+        private void evaluateOnNewThread()
+            throws Throwable
+        {
+            Runner runner = new Runner(next);
+            Thread thread = new Thread(runner, "Time-limited test");
+            thread.setDaemon(true);
+
+            Watch watch = new Watch(thread, timeout, cpuTimeout);
+            runner.watch = watch;
+            getInstance().schedule(watch, watch.firstDelay());
+            thread.start();
+
+            try
+            {
+                watch.awaitEnd();
+            }
+            catch (InterruptedException e)
+            {
+                watch.cancel();
+                thread.interrupt();
+                throw e;
+            }
+
+            if (watch.cancel())
+            {
+                throw watch.timeoutException();
+            }
+            else if (runner.failure != null)
+            {
+                throw runner.failure;
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Runs a statement on a thread of its own, and records how it ended.
+     */
+    private static class Runner
+        implements Runnable
+    {
+        private final Statement next;
+
+        // Set before the thread is started.
+        private Watch watch;
+
+        // Read once the watch has been told that the statement has ended.
+        private Throwable failure;
+
+        // ----------------------------------------------------------
+        public Runner(Statement next)
+        {
+            this.next = next;
+        }
+
+
+        // ----------------------------------------------------------
+        public void run()
+        {
+            currentWatch.set(watch);
+
+            try
+            {
+                next.evaluate();
+            }
+            catch (Throwable e)
+            {
+                failure = e;
+            }
+            finally
+            {
+                watch.finish();
+            }
+        }
+    }
+}
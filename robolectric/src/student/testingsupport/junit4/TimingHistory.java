@@ -0,0 +1,341 @@
+/*==========================================================================*\
+ |  $Id$
+ |*-------------------------------------------------------------------------*|
+ |  Copyright (C) 2011 Virginia Tech
+ |
+ |  This file is part of the Student-Library.
+ |
+ |  The Student-Library is free software; you can redistribute it and/or
+ |  modify it under the terms of the GNU Lesser General Public License as
+ |  published by the Free Software Foundation; either version 3 of the
+ |  License, or (at your option) any later version.
+ |
+ |  The Student-Library is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU Lesser General Public License for more details.
+ |
+ |  You should have received a copy of the GNU Lesser General Public License
+ |  along with the Student-Library; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package student.testingsupport.junit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+//-------------------------------------------------------------------------
+/**
+ * The times that test methods have taken in earlier runs, as read from the
+ * log written by {@link AdaptiveTimeout#appendStatsToFile()}.
+ *
+ * Only the methods that terminated are counted, since the time logged for a
+ * method that timed out says nothing about how long it should take, and only
+ * the most recent times for each method are kept, up to a given number. The
+ * log may or may not have a header row or a Username column. Lines that
+ * cannot be parsed are skipped.
+ *
+ * The history of a file is read once and then shared. Since the log only
+ * ever grows, when it changes, only the lines that have been added since it
+ * was last read are read. Only the end of a large log is read the first
+ * time, as much as {@link #MAX_INITIAL_READ} bytes of it, and the whole log
+ * is read again only if it gets shorter.
+ *
+ * @author Tony Allevato
+ * @author Last changed by $Author$
+ * @version $Revision$, $Date$
+ */
+public class TimingHistory
+{
+    //~ Instance/static variables .............................................
+
+    /** The most of the end of the log that is read the first time. */
+    public static final int MAX_INITIAL_READ = 1 << 20;
+
+    private static final Map<File, TimingHistory> cache =
+        new HashMap<File, TimingHistory>();
+
+    // The number of columns in a line without a Username column.
+    private static final int COLUMNS = 9;
+
+    private final File file;
+    private final int maxSamples;
+
+    // How far the log has been read, which is always the end of a line,
+    // and when it was last changed.
+    private long position;
+    private long lastModified;
+
+    // The most recent times for each "className#methodName", oldest first,
+    // and the same times sorted, which are only computed when needed.
+    private final Map<String, LinkedList<Long>> samples =
+        new HashMap<String, LinkedList<Long>>();
+    private final Map<String, long[]> sorted = new HashMap<String, long[]>();
+
+
+    //~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates an empty history for the specified log file, which is filled
+     * in by {@link #update()}.
+     *
+     * @param file the log file
+     * @param maxSamples the number of times to keep for each method
+     */
+    private TimingHistory(File file, int maxSamples)
+    {
+        this.file = file;
+        this.maxSamples = maxSamples;
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the history in the specified log file, reading the lines that
+     * have been added to it since it was last read.
+     *
+     * @param file the log file
+     * @param maxSamples the number of times to keep for each method, which
+     *     must be at least 1
+     * @return the history, or null if the file does not exist or cannot be
+     *     read
+     */
+    public static TimingHistory forFile(File file, int maxSamples)
+    {
+        File key = file.getAbsoluteFile();
+
+        synchronized (cache)
+        {
+            TimingHistory history = cache.get(key);
+
+            if (history == null || history.maxSamples != maxSamples)
+            {
+                history = new TimingHistory(key, maxSamples);
+                cache.put(key, history);
+            }
+
+            try
+            {
+                if (history.update())
+                {
+                    return history;
+                }
+            }
+            catch (IOException e)
+            {
+                // Treat it like a missing file.
+            }
+
+            cache.remove(key);
+            return null;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the number of times the specified method has terminated in
+     * earlier runs, up to the number that are kept.
+     *
+     * @param className the name of the test class
+     * @param methodName the name of the test method
+     * @return the number of times recorded
+     */
+    public synchronized int getSampleCount(
+        String className, String methodName)
+    {
+        LinkedList<Long> times = samples.get(key(className, methodName));
+        return (times == null) ? 0 : times.size();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the specified percentile of the times the specified method has
+     * taken in earlier runs, using the nearest-rank method.
+     *
+     * @param className the name of the test class
+     * @param methodName the name of the test method
+     * @param percentile the percentile, from 0 to 100
+     * @return the time, in the units in which it was logged, or -1 if there
+     *     are no times recorded for the method
+     */
+    public synchronized long getPercentile(
+        String className, String methodName, double percentile)
+    {
+        String key = key(className, methodName);
+        long[] times = sorted.get(key);
+
+        if (times == null)
+        {
+            LinkedList<Long> list = samples.get(key);
+
+            if (list == null)
+            {
+                return -1;
+            }
+
+            times = new long[list.size()];
+            int i = 0;
+
+            for (long time : list)
+            {
+                times[i++] = time;
+            }
+
+            Arrays.sort(times);
+            sorted.put(key, times);
+        }
+
+        int rank = (int) Math.ceil(percentile / 100 * times.length);
+        return times[Math.min(Math.max(rank, 1), times.length) - 1];
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Reads the lines that have been added to the log since it was last
+     * read, or the end of the whole log if it has never been read or has
+     * gotten shorter.
+     *
+     * @return false if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    private synchronized boolean update()
+        throws IOException
+    {
+        if (!file.isFile())
+        {
+            return false;
+        }
+
+        long modified = file.lastModified();
+        long length = file.length();
+
+        if (modified == lastModified && length == position)
+        {
+            return true;
+        }
+
+        boolean partial = false;
+
+        if (length < position || position == 0)
+        {
+            samples.clear();
+            position = Math.max(0, length - MAX_INITIAL_READ);
+            partial = (position > 0);
+        }
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        byte[] bytes;
+
+        try
+        {
+            bytes = new byte[(int) Math.min(
+                in.length() - position, Integer.MAX_VALUE)];
+            in.seek(position);
+            in.readFully(bytes);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // Only complete lines are read, and the rest is left for next time.
+        // When starting in the middle of the log, the first line is only
+        // part of one, so it is skipped.
+        int start = 0;
+        int end = bytes.length;
+
+        while (end > 0 && bytes[end - 1] != '\n')
+        {
+            end--;
+        }
+
+        if (partial)
+        {
+            while (start < end && bytes[start++] != '\n')
+            {
+                // Skip it.
+            }
+        }
+
+        for (String line : new String(bytes, start, end - start).split("\n"))
+        {
+            addLine(line.trim());
+        }
+
+        position += end;
+        lastModified = modified;
+        sorted.clear();
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds the time in a line of the log, if the method terminated.
+     *
+     * @param line the line
+     */
+    private void addLine(String line)
+    {
+        String[] fields = line.split(",");
+        int n = fields.length;
+
+        if (n != COLUMNS && n != COLUMNS + 1)
+        {
+            return;
+        }
+
+        // Counted from the end, to skip the Username column.
+        String className = fields[n - 8];
+        String methodName = fields[n - 7];
+        String terminated = fields[n - 5];
+        long time;
+
+        try
+        {
+            time = Long.parseLong(fields[n - 4]);
+        }
+        catch (NumberFormatException e)
+        {
+            // The header row, or a damaged line.
+            return;
+        }
+
+        if (Boolean.parseBoolean(terminated))
+        {
+            String key = key(className, methodName);
+            LinkedList<Long> times = samples.get(key);
+
+            if (times == null)
+            {
+                times = new LinkedList<Long>();
+                samples.put(key, times);
+            }
+
+            times.add(time);
+
+            if (times.size() > maxSamples)
+            {
+                times.removeFirst();
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    private static String key(String className, String methodName)
+    {
+        return className + "#" + methodName;
+    }
+}